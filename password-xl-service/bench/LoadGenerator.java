@@ -0,0 +1,290 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 压测工具
+ * <p>
+ * 单文件程序，无需编译：java bench/LoadGenerator.java --url http://localhost:8080 --username admin --password 123456
+ * <p>
+ * 以固定并发的闭环方式混合执行 /get、/put 与图片读取，预热结束后统计各操作的吞吐量与 p50/p99/max 延迟。
+ * 参数：
+ * --url 服务地址，--username/--password 登录用户，
+ * --concurrency 并发数（默认400），--duration 统计时长秒（默认30），--warmup 预热秒（默认10），
+ * --mix 操作比例（默认 get=60,put=30,image=10），--keys 内容数量（默认100），--size 内容字节数（默认4096），
+ * --label 结果标签，--out 结果追加写入的 JSON Lines 文件
+ */
+public class LoadGenerator {
+
+    private static final Pattern TOKEN = Pattern.compile("\"data\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern OBJECT_KEY = Pattern.compile("\"objectKey\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern CODE = Pattern.compile("\"code\"\\s*:\\s*(\\d+)");
+
+    private final Map<String, String> options;
+    private final String url;
+    private final HttpClient client;
+    private String token;
+    private String imageUrl;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.url = option("url", "http://localhost:8080");
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private void run() throws Exception {
+        int concurrency = Integer.parseInt(option("concurrency", "400"));
+        int duration = Integer.parseInt(option("duration", "30"));
+        int warmup = Integer.parseInt(option("warmup", "10"));
+        int keys = Integer.parseInt(option("keys", "100"));
+        int size = Integer.parseInt(option("size", "4096"));
+        Map<String, Integer> mix = parseMix(option("mix", "get=60,put=30,image=10"));
+
+        login();
+        String content = "x".repeat(size);
+        for (int i = 0; i < keys; i++) {
+            put(key(i), content);
+        }
+        if (mix.getOrDefault("image", 0) > 0) {
+            uploadImage();
+        }
+
+        String[] ops = mix.keySet().toArray(new String[0]);
+        int[] weights = new int[ops.length];
+        int total = 0;
+        for (int i = 0; i < ops.length; i++) {
+            total += mix.get(ops[i]);
+            weights[i] = total;
+        }
+        int totalWeight = total;
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        List<Recorder> recorders = new ArrayList<>();
+        System.out.printf("concurrency: %d warmup: %ds duration: %ds mix: %s%n", concurrency, warmup, duration, mix);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int w = 0; w < concurrency; w++) {
+                Recorder recorder = new Recorder(ops);
+                recorders.add(recorder);
+                executor.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (true) {
+                        long now = System.nanoTime();
+                        if (now >= end) {
+                            return;
+                        }
+                        int pick = random.nextInt(totalWeight);
+                        int op = 0;
+                        while (pick >= weights[op]) {
+                            op++;
+                        }
+                        boolean ok;
+                        try {
+                            ok = execute(ops[op], key(random.nextInt(keys)), content);
+                        } catch (Exception e) {
+                            ok = false;
+                        }
+                        long finished = System.nanoTime();
+                        if (now >= measureStart) {
+                            recorder.record(op, finished - now, ok);
+                        }
+                    }
+                });
+            }
+        }
+        report(ops, recorders, duration, concurrency, mix);
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) {
+                result.put(kv[0].trim(), weight);
+            }
+        }
+        return result;
+    }
+
+    private static String key(int i) {
+        return "bench/" + i + ".json";
+    }
+
+    private boolean execute(String op, String key, String content) throws IOException, InterruptedException {
+        return switch (op) {
+            case "get" -> post("/get", "{\"key\":\"" + key + "\"}");
+            case "put" -> put(key, content);
+            case "image" -> send(HttpRequest.newBuilder(URI.create(imageUrl)).GET().build()).statusCode() == 200;
+            default -> throw new IllegalArgumentException("unknown op: " + op);
+        };
+    }
+
+    private boolean put(String key, String content) throws IOException, InterruptedException {
+        return post("/put", "{\"key\":\"" + key + "\",\"content\":\"" + content + "\"}");
+    }
+
+    private boolean post(String path, String json) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(url + path))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + token)
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build());
+        Matcher matcher = CODE.matcher(response.body());
+        return response.statusCode() == 200 && matcher.find() && "200".equals(matcher.group(1));
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void login() throws IOException, InterruptedException {
+        String body = "{\"username\":\"" + option("username", "admin") + "\",\"password\":\"" + option("password", "") + "\"}";
+        HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(url + "/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+        Matcher matcher = TOKEN.matcher(response.body());
+        if (!matcher.find()) {
+            throw new IllegalStateException("login failed: " + response.body());
+        }
+        token = matcher.group(1);
+    }
+
+    private void uploadImage() throws IOException, InterruptedException {
+        // 内容随机的小文件，服务端只按扩展名校验
+        byte[] image = new byte[32 * 1024];
+        ThreadLocalRandom.current().nextBytes(image);
+        String boundary = "bench" + System.nanoTime();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"bench.png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(image);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(url + "/uploadImage/bench"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("Authorization", "Bearer " + token)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build());
+        Matcher matcher = OBJECT_KEY.matcher(response.body());
+        if (!matcher.find()) {
+            throw new IllegalStateException("upload image failed: " + response.body());
+        }
+        imageUrl = url + "/image" + matcher.group(1);
+    }
+
+    private void report(String[] ops, List<Recorder> recorders, int duration, int concurrency, Map<String, Integer> mix) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"label\":\"").append(option("label", "")).append("\",\"concurrency\":").append(concurrency)
+                .append(",\"duration\":").append(duration).append(",\"mix\":\"").append(mix).append("\",\"ops\":{");
+        System.out.printf("%-8s %10s %10s %8s %10s %10s %10s%n", "op", "requests", "req/s", "errors", "p50(ms)", "p99(ms)", "max(ms)");
+        long allCount = 0;
+        for (int op = 0; op < ops.length; op++) {
+            int count = 0;
+            long errors = 0;
+            for (Recorder recorder : recorders) {
+                count += recorder.counts[op];
+                errors += recorder.errors[op];
+            }
+            long[] latencies = new long[count];
+            int offset = 0;
+            for (Recorder recorder : recorders) {
+                System.arraycopy(recorder.latencies[op], 0, latencies, offset, recorder.counts[op]);
+                offset += recorder.counts[op];
+            }
+            Arrays.sort(latencies);
+            allCount += count;
+            double throughput = (double) count / duration;
+            double p50 = percentile(latencies, 0.50);
+            double p99 = percentile(latencies, 0.99);
+            double max = count == 0 ? 0 : latencies[count - 1] / 1e6;
+            System.out.printf("%-8s %10d %10.1f %8d %10.2f %10.2f %10.2f%n", ops[op], count, throughput, errors, p50, p99, max);
+            json.append(op == 0 ? "" : ",").append('"').append(ops[op]).append("\":{")
+                    .append("\"requests\":").append(count)
+                    .append(",\"throughput\":").append(String.format("%.1f", throughput))
+                    .append(",\"errors\":").append(errors)
+                    .append(",\"p50\":").append(String.format("%.2f", p50))
+                    .append(",\"p99\":").append(String.format("%.2f", p99))
+                    .append(",\"max\":").append(String.format("%.2f", max))
+                    .append('}');
+        }
+        json.append("},\"throughput\":").append(String.format("%.1f", (double) allCount / duration)).append('}');
+        System.out.printf("total req/s: %.1f%n", (double) allCount / duration);
+        String out = options.get("out");
+        if (out != null) {
+            Files.writeString(Path.of(out), json + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * 单个压测线程的记录，只由所属线程写入，结束后统一汇总
+     */
+    private static class Recorder {
+        final long[][] latencies;
+        final int[] counts;
+        final long[] errors;
+
+        Recorder(String[] ops) {
+            latencies = new long[ops.length][1024];
+            counts = new int[ops.length];
+            errors = new long[ops.length];
+        }
+
+        void record(int op, long nanos, boolean ok) {
+            if (!ok) {
+                errors[op]++;
+            }
+            if (counts[op] == latencies[op].length) {
+                latencies[op] = Arrays.copyOf(latencies[op], counts[op] * 2);
+            }
+            latencies[op][counts[op]++] = nanos;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+#!/usr/bin/env bash
+# 对比 JVM 与原生镜像的启动耗时和常驻内存
+#
+# 用法：bench/compare-startup.sh [jar] [原生可执行文件]
+# 启动耗时为从启动进程到 /service/health 首次返回成功的时间；
+# 内存为启动完成后以及执行 200 次读写后的 VmRSS
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+JAR=${1:-$(ls build/libs/password-xl-service-*.jar | grep -v plain | head -n 1)}
+NATIVE=${2:-build/native/nativeCompile/password-xl-service}
+PORT=${PORT:-18082}
+URL=http://localhost:$PORT
+SERVICE_PID=
+trap '[ -n "$SERVICE_PID" ] && kill "$SERVICE_PID" 2>/dev/null || true' EXIT
+
+now_ms() {
+  date +%s%3N
+}
+
+rss_mb() {
+  awk '/VmRSS/ {printf "%.1f", $2 / 1024}' "/proc/$1/status"
+}
+
+measure() {
+  local name=$1
+  shift
+  local data_dir
+  data_dir=$(mktemp -d)
+  printf '[[user]]\nusername = "bench"\npassword = "bench"\n' > "$data_dir/password-xl.toml"
+
+  local start
+  start=$(now_ms)
+  DATA_DIR=$data_dir "$@" --server.port="$PORT" --management.server.port=-1 > "$data_dir/service.log" 2>&1 &
+  SERVICE_PID=$!
+  until curl -sf "$URL/service/health" > /dev/null; do
+    sleep 0.01
+  done
+  local startup=$(( $(now_ms) - start ))
+  local rss_started
+  rss_started=$(rss_mb "$SERVICE_PID")
+
+  local token
+  token=$(curl -sf -X POST "$URL/login" -H 'Content-Type: application/json' -d '{"username":"bench","password":"bench"}' \
+    | sed -n 's/.*"data":"\([^"]*\)".*/\1/p')
+  local content
+  content=$(head -c 49152 /dev/zero | tr '\0' 'x')
+  for i in $(seq 1 100); do
+    curl -sf -X POST "$URL/put" -H 'Content-Type: application/json' -H "Authorization: Bearer $token" \
+      -d "{\"key\":\"bench/$((i % 10)).json\",\"content\":\"$content\"}" > /dev/null
+    curl -sf -X POST "$URL/get" -H 'Content-Type: application/json' -H "Authorization: Bearer $token" \
+      -d "{\"key\":\"bench/$((i % 10)).json\"}" > /dev/null
+  done
+  local rss_loaded
+  rss_loaded=$(rss_mb "$SERVICE_PID")
+
+  printf '%-8s %12s %16s %16s\n' "$name" "$startup" "$rss_started" "$rss_loaded"
+  kill "$SERVICE_PID"
+  wait "$SERVICE_PID" 2>/dev/null || true
+  SERVICE_PID=
+  rm -rf "$data_dir"
+}
+
+printf '%-8s %12s %16s %16s\n' mode startup_ms rss_started_mb rss_loaded_mb
+measure jvm java -jar "$JAR"
+measure native "$NATIVE"
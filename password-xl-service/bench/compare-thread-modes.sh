@@ -0,0 +1,49 @@
+#!/usr/bin/env bash
+# 对比平台线程与虚拟线程两种模式下的吞吐量与延迟
+#
+# 用法：bench/compare-thread-modes.sh [jar] [LoadGenerator参数...]
+# 示例：bench/compare-thread-modes.sh build/libs/password-xl-service-1.1.0.jar --concurrency 400 --duration 60
+#
+# 每种模式使用独立的临时数据目录启动服务，压测结果追加写入 bench/results/thread-modes-<时间>.jsonl
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+JAR=${1:-$(ls build/libs/password-xl-service-*.jar | grep -v plain | head -n 1)}
+shift || true
+PORT=${PORT:-18080}
+RESULT_DIR=bench/results
+RESULT_FILE=$RESULT_DIR/thread-modes-$(date +%Y%m%d-%H%M%S).jsonl
+mkdir -p "$RESULT_DIR"
+SERVICE_PID=
+trap '[ -n "$SERVICE_PID" ] && kill "$SERVICE_PID" 2>/dev/null || true' EXIT
+
+run_mode() {
+  local virtual=$1
+  local data_dir
+  data_dir=$(mktemp -d)
+  printf '[[user]]\nusername = "bench"\npassword = "bench"\n' > "$data_dir/password-xl.toml"
+
+  DATA_DIR=$data_dir java -jar "$JAR" --server.port="$PORT" --spring.threads.virtual.enabled="$virtual" \
+    --logging.level.com.passwordxl=warn > "$data_dir/service.log" 2>&1 &
+  SERVICE_PID=$!
+
+  for _ in $(seq 1 60); do
+    if curl -sf "http://localhost:$PORT/service/health" > /dev/null; then
+      break
+    fi
+    sleep 1
+  done
+
+  echo "== spring.threads.virtual.enabled=$virtual"
+  java bench/LoadGenerator.java --url "http://localhost:$PORT" --username bench --password bench \
+    --label "virtual=$virtual" --out "$RESULT_FILE" "$@"
+
+  kill "$SERVICE_PID"
+  wait "$SERVICE_PID" 2>/dev/null || true
+  SERVICE_PID=
+  rm -rf "$data_dir"
+}
+
+run_mode false "$@"
+run_mode true "$@"
+echo "results: $RESULT_FILE"
@@ -0,0 +1,142 @@
+#!/usr/bin/env bash
+# 主从复制测试：在本机启动一个主节点与两个从节点，验证写入转发、读到自己的写入、token吊销同步与离线从节点追赶
+#
+# 用法：bench/replication-test.sh [启动命令]，默认 "java -jar build/libs/password-xl-service-*.jar"
+# 也可传入原生镜像可执行文件
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+# shellcheck disable=SC2206
+COMMAND=(${1:-java -jar $(ls build/libs/password-xl-service-*.jar | grep -v plain | head -n 1)})
+BASE_PORT=${BASE_PORT:-18181}
+SECRET=replication-test-secret
+
+WORK_DIR=$(mktemp -d)
+declare -A PIDS=()
+cleanup() {
+  for pid in "${PIDS[@]}"; do kill "$pid" 2>/dev/null || true; done
+  rm -rf "$WORK_DIR"
+}
+trap cleanup EXIT
+
+fail() {
+  echo "FAIL: $*"
+  for node in leader follower1 follower2; do
+    echo "---- $node log ----"
+    tail -n 30 "$WORK_DIR/$node/service.log" 2>/dev/null || true
+  done
+  exit 1
+}
+
+port() {
+  case $1 in
+    leader) echo "$BASE_PORT" ;;
+    follower1) echo $((BASE_PORT + 1)) ;;
+    follower2) echo $((BASE_PORT + 2)) ;;
+  esac
+}
+
+start() {
+  local node=$1 role=$2 port
+  port=$(port "$node")
+  mkdir -p "$WORK_DIR/$node"
+  printf '[[user]]\nusername = "repl"\npassword = "repl"\n' > "$WORK_DIR/$node/password-xl.toml"
+  DATA_DIR=$WORK_DIR/$node "${COMMAND[@]}" --server.port="$port" --management.server.port=$((port + 1000)) \
+    --password-xl.replication.role="$role" --password-xl.replication.secret="$SECRET" \
+    --password-xl.replication.leader-url="http://localhost:$BASE_PORT" --password-xl.replication.poll-timeout=5s \
+    >> "$WORK_DIR/$node/service.log" 2>&1 &
+  PIDS[$node]=$!
+  for _ in $(seq 1 300); do
+    curl -sf "http://localhost:$port/service/health" > /dev/null && return
+    kill -0 "${PIDS[$node]}" 2>/dev/null || fail "$node exited during startup"
+    sleep 0.1
+  done
+  fail "$node not healthy"
+}
+
+stop() {
+  kill "${PIDS[$1]}" && wait "${PIDS[$1]}" 2>/dev/null || true
+  unset "PIDS[$1]"
+}
+
+post() {
+  curl -sf -X POST "http://localhost:$(port "$1")/$2" -H 'Content-Type: application/json' -H "Authorization: Bearer $TOKEN" -d "$3"
+}
+
+# 在指定节点上等待读到期望的内容
+await_content() {
+  local node=$1 key=$2 expected=$3
+  for _ in $(seq 1 100); do
+    post "$node" get "{\"key\":\"$key\"}" | grep -q "\"content\":\"$expected\"" && return
+    sleep 0.1
+  done
+  fail "$node did not replicate $key=$expected"
+}
+
+start leader leader
+start follower1 follower
+start follower2 follower
+
+TOKEN=$(curl -sf -X POST "http://localhost:$(port follower1)/login" -H 'Content-Type: application/json' \
+  -d '{"username":"repl","password":"repl"}' | sed -n 's/.*"data":"\([^"]*\)".*/\1/p')
+[ -n "$TOKEN" ] || fail "login on follower"
+
+# 写入从节点转发到主节点，响应返回前从节点已同步
+post follower1 put '{"key":"store.json","content":"v1"}' | grep -q '"code":200' || fail "put via follower"
+post follower1 get '{"key":"store.json"}' | grep -q '"content":"v1"' || fail "read your write on follower1"
+post leader get '{"key":"store.json"}' | grep -q '"content":"v1"' || fail "leader missing forwarded write"
+await_content follower2 store.json v1
+
+ETAG=$(post follower2 getEtag '{"key":"store.json"}' | sed -n 's/.*"etag":"\([0-9a-f]*\)".*/\1/p')
+[ -n "$ETAG" ] || fail "getEtag on follower"
+post follower2 put '{"key":"store.json","content":"stale","etag":"0000"}' | grep -q '"code":412' || fail "etag conflict via follower"
+
+printf 'png' > "$WORK_DIR/repl.png"
+OBJECT_KEY=$(curl -sf -X POST "http://localhost:$(port follower2)/uploadImage/repl" -H "Authorization: Bearer $TOKEN" \
+  -F "file=@$WORK_DIR/repl.png" | sed -n 's/.*"objectKey":"\([^"]*\)".*/\1/p')
+[ -n "$OBJECT_KEY" ] || fail "uploadImage via follower"
+[ "$(curl -sf "http://localhost:$(port follower2)/image$OBJECT_KEY")" = "png" ] || fail "image on follower2"
+for _ in $(seq 1 100); do
+  [ "$(curl -sf "http://localhost:$(port follower1)/image$OBJECT_KEY")" = "png" ] && break
+  sleep 0.1
+done
+[ "$(curl -sf "http://localhost:$(port follower1)/image$OBJECT_KEY")" = "png" ] || fail "image on follower1"
+
+# 从节点离线期间的写入，重启后按序号追赶
+stop follower2
+post leader put '{"key":"store.json","content":"v2"}' | grep -q '"code":200' || fail "put on leader"
+post leader put '{"key":"other.json","content":"other"}' | grep -q '"code":200' || fail "put other on leader"
+post follower1 delete '{"key":"other.json"}' | grep -q '"code":200' || fail "delete via follower"
+post leader put '{"key":"late.json","content":"late"}' | grep -q '"code":200' || fail "put late on leader"
+start follower2 follower
+await_content follower2 store.json v2
+await_content follower2 late.json late
+post follower2 get '{"key":"other.json"}' | grep -q '"content":"other"' && fail "deleted key still on follower2"
+
+# 从节点数据丢失后全量同步
+stop follower2
+rm -rf "$WORK_DIR/follower2/password-xl-data"
+start follower2 follower
+await_content follower2 store.json v2
+await_content follower2 late.json late
+
+# 吊销同步到所有节点
+curl -sf -X POST "http://localhost:$(port follower2)/logout" -H "Authorization: Bearer $TOKEN" > /dev/null || fail "logout via follower"
+for node in leader follower1 follower2; do
+  for _ in $(seq 1 100); do
+    post "$node" get '{"key":"store.json"}' > /dev/null || break
+    sleep 0.1
+  done
+  post "$node" get '{"key":"store.json"}' > /dev/null && fail "token still valid on $node after logout"
+done
+
+# 主节点不可用时从节点继续提供读取，写入返回503
+TOKEN=$(curl -sf -X POST "http://localhost:$(port follower1)/login" -H 'Content-Type: application/json' \
+  -d '{"username":"repl","password":"repl"}' | sed -n 's/.*"data":"\([^"]*\)".*/\1/p')
+stop leader
+post follower1 get '{"key":"store.json"}' | grep -q '"content":"v2"' || fail "read on follower while leader down"
+STATUS=$(curl -s -o /dev/null -w '%{http_code}' -X POST "http://localhost:$(port follower1)/put" -H 'Content-Type: application/json' \
+  -H "Authorization: Bearer $TOKEN" -d '{"key":"store.json","content":"v3"}')
+[ "$STATUS" = "503" ] || fail "write while leader down returned $STATUS"
+
+echo "OK: replication test passed"
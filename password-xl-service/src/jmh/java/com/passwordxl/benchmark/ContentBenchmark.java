@@ -0,0 +1,105 @@
+package com.passwordxl.benchmark;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.GetContentParam;
+import com.passwordxl.bean.PutContentParam;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.config.ReplicationConfig;
+import com.passwordxl.config.StorageConfig;
+import com.passwordxl.service.AtomicFileWriter;
+import com.passwordxl.service.ContentCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内容读写
+ * <p>
+ * put 每个线程写自己的key，putSharedKey 所有线程写同一个key，用于观察key锁竞争；
+ * get 在已有内容中随机读取，cacheSize 为 0B 时每次都从存储引擎读取。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentBenchmark {
+
+    // 单个密码库的字节数
+    @Param({"1024", "65536", "1048576"})
+    public int vaultSize;
+
+    // 用户的内容数量
+    @Param({"16"})
+    public int vaultCount;
+
+    @Param({"64MB", "0B"})
+    public String cacheSize;
+
+    @Param({"NONE"})
+    public ContentCodec.Codec codec;
+
+    // -p engine=PAGE 对比单文件分页存储
+    @Param({"FILE"})
+    public StorageConfig.Engine engine;
+
+    // -p replication=LEADER 对比写入时记录复制变更的开销
+    @Param({"NONE"})
+    public ReplicationConfig.Role replication;
+
+    private ServiceFixture fixture;
+    private String content;
+    private String[] keys;
+    private GetContentParam[] getParams;
+    private PutContentParam sharedPut;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new ServiceFixture(cacheSize, AtomicFileWriter.Durability.FSYNC_FILE, codec, engine, true, replication);
+        content = ServiceFixture.content(vaultSize);
+        keys = fixture.populate("vault", vaultCount, content);
+        getParams = new GetContentParam[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            getParams[i] = new GetContentParam();
+            getParams[i].setKey(keys[i]);
+        }
+        sharedPut = ServiceFixture.putParam("shared.json", content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        PutContentParam put;
+
+        @Setup(Level.Trial)
+        public void setup(ContentBenchmark benchmark) {
+            put = ServiceFixture.putParam("thread/" + benchmark.threadIds.getAndIncrement() + ".json", benchmark.content);
+        }
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> put(ThreadState state) {
+        return fixture.service.putContent(ServiceFixture.USERNAME, state.put);
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> putSharedKey() {
+        return fixture.service.putContent(ServiceFixture.USERNAME, sharedPut);
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> get() {
+        return fixture.service.getContent(ServiceFixture.USERNAME, getParams[ThreadLocalRandom.current().nextInt(getParams.length)]);
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> getEtag() {
+        return fixture.service.getEtag(ServiceFixture.USERNAME, getParams[ThreadLocalRandom.current().nextInt(getParams.length)]);
+    }
+}
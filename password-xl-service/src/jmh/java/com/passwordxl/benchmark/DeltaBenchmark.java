@@ -0,0 +1,109 @@
+package com.passwordxl.benchmark;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.PatchContentParam;
+import com.passwordxl.bean.PatchOp;
+import com.passwordxl.bean.PutContentParam;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.service.AtomicFileWriter;
+import com.passwordxl.service.ContentCodec;
+import com.passwordxl.util.TextDelta;
+import com.passwordxl.util.UserContent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 小范围修改时增量上传与完整上传的对比
+ * <p>
+ * 每次调用在两个版本之间来回切换，增量上传基于上一次写入的标记；每个线程写自己的key。
+ * 启动时打印 /put 与 /patch 请求体序列化后的字节数，对比上传流量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeltaBenchmark {
+
+    @Param({"10240", "65536", "1048576", "10485760"})
+    public int vaultSize;
+
+    private ServiceFixture fixture;
+    private String[] versions;
+    private List<List<PatchOp>> patches;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new ServiceFixture("64MB", AtomicFileWriter.Durability.FSYNC_FILE, ContentCodec.Codec.NONE);
+        String base = ServiceFixture.content(vaultSize);
+        int middle = vaultSize / 2;
+        // 模拟修改一条密码记录
+        versions = new String[]{base, base.substring(0, middle) + "{\"title\":\"changed\"}" + base.substring(middle + 20)};
+        patches = List.of(TextDelta.diff(versions[1], versions[0]), TextDelta.diff(versions[0], versions[1]));
+        printPayloadSize();
+    }
+
+    private void printPayloadSize() {
+        String etag = DigestUtil.sha256Hex(versions[0]);
+        PutContentParam putContentParam = ServiceFixture.putParam("delta.json", versions[1]);
+        putContentParam.setEtag(etag);
+        PatchContentParam patchContentParam = new PatchContentParam();
+        patchContentParam.setKey("delta.json");
+        patchContentParam.setBaseEtag(etag);
+        patchContentParam.setOps(patches.get(1));
+        int putBytes = JSON.toJSONBytes(putContentParam).length;
+        int patchBytes = JSON.toJSONBytes(patchContentParam).length;
+        System.out.printf("%nvaultSize: %d put: %d bytes patch: %d bytes ratio: %.4f%n",
+                vaultSize, putBytes, patchBytes, (double) patchBytes / putBytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        String key;
+        PutContentParam[] puts;
+        String etag;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup(DeltaBenchmark benchmark) {
+            key = "delta/" + benchmark.threadIds.getAndIncrement() + ".json";
+            puts = new PutContentParam[]{ServiceFixture.putParam(key, benchmark.versions[0]), ServiceFixture.putParam(key, benchmark.versions[1])};
+            etag = benchmark.fixture.service.putContent(ServiceFixture.USERNAME, puts[0]).getData().getString("etag");
+            next = 1;
+        }
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> put(ThreadState state) {
+        RestResult<JSONObject> result = fixture.service.putContent(ServiceFixture.USERNAME, state.puts[state.next]);
+        state.next ^= 1;
+        return result;
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> patch(ThreadState state) {
+        PatchContentParam patchContentParam = new PatchContentParam();
+        patchContentParam.setKey(state.key);
+        patchContentParam.setBaseEtag(state.etag);
+        patchContentParam.setOps(patches.get(state.next));
+        RestResult<JSONObject> result = UserContent.callAs(fixture.user, () -> fixture.service.patchContent(patchContentParam));
+        state.etag = result.getData().getString("etag");
+        state.next ^= 1;
+        return result;
+    }
+
+    @Benchmark
+    public List<PatchOp> diff() {
+        return TextDelta.diff(versions[0], versions[1]);
+    }
+}
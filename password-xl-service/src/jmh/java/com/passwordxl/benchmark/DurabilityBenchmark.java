@@ -0,0 +1,57 @@
+package com.passwordxl.benchmark;
+
+import cn.hutool.core.io.FileUtil;
+import com.passwordxl.service.AtomicFileWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同持久化级别下原子写入一个文件的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DurabilityBenchmark {
+
+    @Param({"NONE", "FSYNC_FILE", "FSYNC_DIR"})
+    public AtomicFileWriter.Durability durability;
+
+    @Param({"1024", "1048576"})
+    public int vaultSize;
+
+    private Path dir;
+    private AtomicFileWriter atomicFileWriter;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("password-xl-bench");
+        atomicFileWriter = new AtomicFileWriter(durability);
+        content = ServiceFixture.content(vaultSize).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtil.del(dir);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        Path target;
+
+        @Setup(Level.Trial)
+        public void setup(DurabilityBenchmark benchmark) {
+            target = benchmark.dir.resolve(Thread.currentThread().threadId() + ".json");
+        }
+    }
+
+    @Benchmark
+    public void write(ThreadState state) throws IOException {
+        atomicFileWriter.write(state.target, content);
+    }
+}
@@ -0,0 +1,89 @@
+package com.passwordxl.benchmark;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.GetContentParam;
+import com.passwordxl.bean.GetVersionParam;
+import com.passwordxl.bean.PutContentParam;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.config.StorageConfig;
+import com.passwordxl.service.AtomicFileWriter;
+import com.passwordxl.service.ContentCodec;
+import com.passwordxl.util.UserContent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 开启历史版本前后写入与读取最新版本的耗时，以及读取历史版本的耗时
+ * <p>
+ * 缓存设为0，读取最新版本每次都读文件；每个线程读写自己的key
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryBenchmark {
+
+    @Param({"false", "true"})
+    public boolean history;
+
+    @Param({"65536", "1048576"})
+    public int vaultSize;
+
+    private ServiceFixture fixture;
+    private String base;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fixture = new ServiceFixture("0B", AtomicFileWriter.Durability.FSYNC_FILE, ContentCodec.Codec.NONE, StorageConfig.Engine.FILE, history);
+        base = ServiceFixture.content(vaultSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        PutContentParam[] puts;
+        GetContentParam getContentParam;
+        GetVersionParam getVersionParam;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup(HistoryBenchmark benchmark) {
+            String key = "history/" + benchmark.threadIds.getAndIncrement() + ".json";
+            puts = new PutContentParam[]{ServiceFixture.putParam(key, benchmark.base),
+                    ServiceFixture.putParam(key, benchmark.base.substring(1) + "x")};
+            // 先写入若干版本，读取的历史版本位于段文件中间
+            for (int i = 0; i < 10; i++) {
+                benchmark.fixture.service.putContent(ServiceFixture.USERNAME, puts[i % 2]);
+            }
+            getContentParam = new GetContentParam();
+            getContentParam.setKey(key);
+            getVersionParam = new GetVersionParam();
+            getVersionParam.setKey(key);
+            getVersionParam.setVersion(5L);
+        }
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> put(ThreadState state) {
+        RestResult<JSONObject> result = fixture.service.putContent(ServiceFixture.USERNAME, state.puts[state.next]);
+        state.next ^= 1;
+        return result;
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> getLatest(ThreadState state) {
+        return fixture.service.getContent(ServiceFixture.USERNAME, state.getContentParam);
+    }
+
+    @Benchmark
+    public RestResult<JSONObject> getVersion(ThreadState state) {
+        return UserContent.callAs(fixture.user, () -> fixture.service.getVersion(state.getVersionParam));
+    }
+}
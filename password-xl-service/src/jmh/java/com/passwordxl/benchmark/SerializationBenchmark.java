@@ -0,0 +1,40 @@
+package com.passwordxl.benchmark;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.common.RestResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /get 响应的 RestResult 序列化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializationBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int vaultSize;
+
+    private RestResult<JSONObject> result;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        JSONObject data = new JSONObject();
+        data.put("etag", "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+        data.put("content", ServiceFixture.content(vaultSize));
+        result = RestResult.genSuccessResult(data);
+    }
+
+    @Benchmark
+    public String toJSONString() {
+        return JSON.toJSONString(result);
+    }
+
+    @Benchmark
+    public byte[] toJSONBytes() {
+        return JSON.toJSONBytes(result);
+    }
+}
@@ -0,0 +1,135 @@
+package com.passwordxl.benchmark;
+
+import cn.hutool.core.io.FileUtil;
+import com.passwordxl.bean.PutContentParam;
+import com.passwordxl.bean.User;
+import com.passwordxl.config.ReplicationConfig;
+import com.passwordxl.config.StorageConfig;
+import com.passwordxl.service.AtomicFileWriter;
+import com.passwordxl.service.ChangeNotifier;
+import com.passwordxl.service.ContentCache;
+import com.passwordxl.service.ContentCodec;
+import com.passwordxl.service.ContentLockManager;
+import com.passwordxl.service.ContentMetaIndex;
+import com.passwordxl.service.DataService;
+import com.passwordxl.service.ImageStore;
+import com.passwordxl.service.PasswordXLService;
+import com.passwordxl.service.ReplicationLog;
+import com.passwordxl.service.ServiceMetrics;
+import com.passwordxl.service.StorageEngine;
+import com.passwordxl.service.ThumbnailCache;
+import com.passwordxl.service.TokenService;
+import com.passwordxl.service.VersionLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试使用的服务实例
+ * <p>
+ * 不启动 Spring，按配置手动组装服务，数据写入临时目录，结束后删除
+ */
+public final class ServiceFixture implements AutoCloseable {
+
+    public static final String USERNAME = "bench";
+
+    public final Path workPath;
+    public final User user;
+    public final ContentCache contentCache;
+    public final TokenService tokenService;
+    public final PasswordXLService service;
+    private final ChangeNotifier changeNotifier;
+    private final VersionLog versionLog;
+    private final StorageEngine storageEngine;
+    private final ReplicationLog replicationLog;
+
+    public ServiceFixture(String cacheSize, AtomicFileWriter.Durability durability, ContentCodec.Codec codec) throws IOException {
+        this(cacheSize, durability, codec, StorageConfig.Engine.FILE, true);
+    }
+
+    public ServiceFixture(String cacheSize, AtomicFileWriter.Durability durability, ContentCodec.Codec codec,
+                          StorageConfig.Engine engine, boolean history) throws IOException {
+        this(cacheSize, durability, codec, engine, history, ReplicationConfig.Role.NONE);
+    }
+
+    /**
+     * @param replication 为 LEADER 时每次写入记录复制变更，用于观察变更日志的开销
+     */
+    public ServiceFixture(String cacheSize, AtomicFileWriter.Durability durability, ContentCodec.Codec codec,
+                          StorageConfig.Engine engine, boolean history, ReplicationConfig.Role replication) throws IOException {
+        workPath = Files.createTempDirectory("password-xl-bench");
+        DataService.workPath = workPath.toString();
+        user = new User();
+        user.setUsername(USERNAME);
+        user.setPassword(USERNAME);
+        user.setStatus(1);
+        DataService.users = Map.of(USERNAME, user);
+
+        ContentCodec contentCodec = new ContentCodec(codec);
+        AtomicFileWriter atomicFileWriter = new AtomicFileWriter(durability);
+        storageEngine = StorageConfig.create(engine, atomicFileWriter);
+        ContentLockManager contentLockManager = new ContentLockManager();
+        ContentMetaIndex contentMetaIndex = new ContentMetaIndex(contentCodec, storageEngine, contentLockManager);
+        contentCache = new ContentCache(DataSize.parse(cacheSize));
+        versionLog = new VersionLog(atomicFileWriter, contentCodec, storageEngine, history, 20, Duration.ofDays(30),
+                DataSize.ofMegabytes(64), Duration.ofMinutes(10));
+        replicationLog = new ReplicationLog(atomicFileWriter, replication, 100_000);
+        ImageStore imageStore = new ImageStore(atomicFileWriter, contentLockManager, contentMetaIndex, contentCodec, storageEngine,
+                versionLog, replicationLog);
+        tokenService = new TokenService(Duration.ofDays(7), replicationLog);
+        changeNotifier = new ChangeNotifier(Duration.ofMinutes(30), Duration.ofSeconds(30), 16);
+        ServiceMetrics serviceMetrics = new ServiceMetrics(new SimpleMeterRegistry(), contentCache, changeNotifier, contentLockManager);
+        service = new PasswordXLService(contentMetaIndex, contentCache, contentLockManager, imageStore,
+                tokenService, contentCodec, storageEngine, changeNotifier, serviceMetrics, versionLog, replicationLog,
+                new ThumbnailCache(atomicFileWriter, new int[]{64, 128, 256, 512, 1024}, DataSize.ofMegabytes(512), 0.85f, 0));
+    }
+
+    /**
+     * 写入 count 个指定大小的内容
+     *
+     * @return 内容key
+     */
+    public String[] populate(String prefix, int count, String content) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = prefix + "/" + i + ".json";
+            service.putContent(USERNAME, putParam(keys[i], content));
+        }
+        return keys;
+    }
+
+    public static PutContentParam putParam(String key, String content) {
+        PutContentParam putContentParam = new PutContentParam();
+        putContentParam.setKey(key);
+        putContentParam.setContent(content);
+        return putContentParam;
+    }
+
+    /**
+     * 生成指定字节数的内容，模拟加密后的密码库
+     */
+    public static String content(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        changeNotifier.close();
+        versionLog.close();
+        replicationLog.close();
+        storageEngine.close();
+        FileUtil.del(workPath);
+    }
+}
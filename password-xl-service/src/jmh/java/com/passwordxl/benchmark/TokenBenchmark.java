@@ -0,0 +1,64 @@
+package com.passwordxl.benchmark;
+
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.JWTUtil;
+import com.passwordxl.config.ReplicationConfig;
+import com.passwordxl.service.AtomicFileWriter;
+import com.passwordxl.service.ReplicationLog;
+import com.passwordxl.service.TokenService;
+import com.passwordxl.util.JwtUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * token签发与校验
+ * <p>
+ * legacyDoubleParse 为改动前登录过滤器的做法：validateToken 与 getUsernameFromToken 各解析一次token，
+ * 每次都重新取密钥字节；verify 为每次完整解析与验签，authenticate 为登录过滤器实际使用的带缓存校验
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenBenchmark {
+
+    // 与 JwtUtil 使用的密钥相同
+    private static final String LEGACY_SECRET_KEY = "password-xl";
+
+    private TokenService tokenService;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ReplicationLog replicationLog = new ReplicationLog(new AtomicFileWriter(AtomicFileWriter.Durability.NONE), ReplicationConfig.Role.NONE, 1);
+        tokenService = new TokenService(Duration.ofDays(7), replicationLog);
+        token = tokenService.generate(ServiceFixture.USERNAME);
+    }
+
+    @Benchmark
+    public String generate() {
+        return JwtUtil.generateToken(ServiceFixture.USERNAME, "bench", 3600);
+    }
+
+    @Benchmark
+    public String legacyDoubleParse() {
+        // JwtUtil.validateToken
+        JWT jwt = JWTUtil.parseToken(token);
+        if (!jwt.setKey(LEGACY_SECRET_KEY.getBytes()).verify()) {
+            return null;
+        }
+        // JwtUtil.getUsernameFromToken
+        return JWTUtil.parseToken(token).getPayload("username").toString();
+    }
+
+    @Benchmark
+    public JwtUtil.Claims verify() {
+        return JwtUtil.verify(token);
+    }
+
+    @Benchmark
+    public JwtUtil.Claims authenticate() {
+        return tokenService.authenticate(token);
+    }
+}
@@ -0,0 +1,17 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+/**
+ * 批量请求中的单个操作
+ */
+@Data
+public class BatchOp {
+    // 操作类型：get、put、delete、getEtag
+    private String op;
+    private String key;
+    // put时的内容
+    private String content;
+    // put时的期望文件标记
+    private String etag;
+}
@@ -0,0 +1,16 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量请求参数
+ */
+@Data
+public class BatchParam {
+    // 按顺序执行的操作，同一个key的操作保持顺序，不同key之间并行执行
+    private List<BatchOp> ops;
+    // 为true时所有put全部写入或全部不写入，此时只能包含put操作
+    private Boolean atomic;
+}
@@ -0,0 +1,24 @@
+package com.passwordxl.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 内容元数据
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentMeta {
+    // 内容标记（内容sha256）
+    private String etag;
+    // 内容字节数
+    private long size;
+    // 存储字节数（压缩后）
+    private long storedSize;
+    // 进程内的写入序号，每次写入递增，重启后重新计数，只用于缓存校验，不对外返回
+    private long version;
+    // 最后更新时间
+    private long updateTime;
+}
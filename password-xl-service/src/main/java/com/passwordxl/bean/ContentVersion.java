@@ -0,0 +1,22 @@
+package com.passwordxl.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 内容历史版本
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentVersion {
+    // 版本号，同一个key内递增
+    private long version;
+    // 内容标记（内容sha256）
+    private String etag;
+    // 内容字节数
+    private long size;
+    // 写入时间
+    private long time;
+}
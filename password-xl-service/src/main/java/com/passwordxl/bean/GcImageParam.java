@@ -0,0 +1,12 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+/**
+ * 图片清理参数
+ */
+@Data
+public class GcImageParam {
+    // 只统计不删除
+    private Boolean dryRun;
+}
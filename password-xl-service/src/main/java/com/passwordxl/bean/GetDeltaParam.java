@@ -0,0 +1,13 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+/**
+ * 增量获取参数
+ */
+@Data
+public class GetDeltaParam {
+    private String key;
+    // 客户端已有内容的文件标记
+    private String baseEtag;
+}
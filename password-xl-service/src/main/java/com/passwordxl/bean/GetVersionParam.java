@@ -0,0 +1,13 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+/**
+ * 获取历史版本参数
+ */
+@Data
+public class GetVersionParam {
+    private String key;
+    // 版本号
+    private Long version;
+}
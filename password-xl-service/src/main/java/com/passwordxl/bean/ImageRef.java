@@ -0,0 +1,17 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 图片引用信息
+ */
+@Data
+public class ImageRef {
+    // 上传过该图片的前缀（笔记id）
+    private Set<String> prefixes = new LinkedHashSet<>();
+    // 最近一次上传时间
+    private long uploadTime;
+}
@@ -0,0 +1,17 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 增量上传参数
+ */
+@Data
+public class PatchContentParam {
+    private String key;
+    // 修改基于的文件标记
+    private String baseEtag;
+    // 按起始位置升序排列且互不重叠的修改片段
+    private List<PatchOp> ops;
+}
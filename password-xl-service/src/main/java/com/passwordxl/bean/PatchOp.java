@@ -0,0 +1,20 @@
+package com.passwordxl.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 内容修改片段，位置均相对于修改前的内容，按UTF-16字符计数
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PatchOp {
+    // 起始位置
+    private int start;
+    // 删除的字符数
+    private int deleteCount;
+    // 插入的内容
+    private String insert;
+}
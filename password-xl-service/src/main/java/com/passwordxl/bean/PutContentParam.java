@@ -9,4 +9,6 @@ import lombok.Data;
 public class PutContentParam {
     private String key;
     private String content;
+    // 期望的文件标记（If-Match），为空时不做校验直接覆盖
+    private String etag;
 }
@@ -0,0 +1,21 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 主从复制的一批变更
+ */
+@Data
+public class ReplicationBatch {
+    // 主节点变更日志id，与从节点记录的不一致时需要重新全量同步
+    private String logId;
+    // 本批变更同步到的序号，全量同步时为开始同步时的序号
+    private long lastSeq;
+    // 从节点落后太多或日志已重建，需要重新全量同步
+    private boolean resync;
+    // 变更列表
+    private List<ReplicationChange> changes = new ArrayList<>();
+}
@@ -0,0 +1,22 @@
+package com.passwordxl.bean;
+
+import lombok.Data;
+
+/**
+ * 主从复制的一条变更
+ */
+@Data
+public class ReplicationChange {
+    // 操作：put / delete / image / image-delete / revoke
+    private String op;
+    // 用户名
+    private String username;
+    // 内容key、图片路径（images/...）或token id
+    private String key;
+    // 内容标记，仅put；从节点请求拉取时为本地的内容标记，与主节点一致时不返回数据
+    private String etag;
+    // 内容字节数，仅put
+    private Long size;
+    // Base64编码的数据：put为存储引擎中的数据（已按存储格式压缩），image为图片文件
+    private String data;
+}
@@ -34,4 +34,10 @@ public class RestResult<T> {
         restResult.setMessage(message);
         return restResult;
     }
+
+    public static <T> RestResult<T> genErrorResult(Integer code, String message, T data) {
+        RestResult<T> restResult = genErrorResult(code, message);
+        restResult.setData(data);
+        return restResult;
+    }
 }
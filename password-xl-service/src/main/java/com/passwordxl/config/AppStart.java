@@ -1,9 +1,10 @@
 package com.passwordxl.config;
 
 import cn.hutool.core.util.StrUtil;
-import com.moandjiezana.toml.Toml;
-import com.passwordxl.bean.User;
 import com.passwordxl.service.DataService;
+import com.passwordxl.service.ReplicationFollower;
+import com.passwordxl.service.StorageMigration;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jspecify.annotations.NonNull;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,14 +14,16 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.FileWriter;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class AppStart implements ApplicationRunner {
 
+    private final UserConfig userConfig;
+    private final StorageMigration storageMigration;
+    private final ReplicationFollower replicationFollower;
+
     @Value("${doc.deploy}")
     private String deployDoc;
     @Value("${doc.openSource}")
@@ -73,16 +76,23 @@ public class AppStart implements ApplicationRunner {
         }
 
         log.info("数据存储目录: {}", DataService.workPath);
-        Toml toml = new Toml().read(configFile);
-        List<Map<String, Object>> maps = toml.getList("user");
-        if (maps == null || maps.isEmpty()) {
-            throw new RuntimeException("未配置用户. 请参考官方部署说明文档：" + deployDoc);
+        // 迁移在加载用户之前完成，迁移期间无法登录
+        try {
+            storageMigration.migrateIfConfigured();
+        } catch (Exception e) {
+            throw new RuntimeException("存储迁移失败: " + e.getMessage(), e);
+        }
+        try {
+            userConfig.load(configFile);
+        } catch (Exception e) {
+            throw new RuntimeException("用户配置错误: " + e.getMessage() + ". 请参考官方部署说明文档：" + deployDoc, e);
+        }
+        userConfig.watch(configFile);
+        try {
+            replicationFollower.start();
+        } catch (Exception e) {
+            throw new RuntimeException("复制配置错误: " + e.getMessage(), e);
         }
-        List<User> users = maps.stream().map(this::mapToUser).toList();
-
-        log.info("配置用户数: {}", users.size());
-        Map<String, User> userMap = users.stream().collect(Collectors.toMap(User::getUsername, user -> user));
-        DataService.users.putAll(userMap);
         log.info("服务启动成功!!!");
     }
 
@@ -130,11 +140,4 @@ public class AppStart implements ApplicationRunner {
         }
         return configFile;
     }
-
-    private User mapToUser(Map<String, Object> map) {
-        User user = new User();
-        user.setUsername((String) map.get("username"));
-        user.setPassword((String) map.get("password"));
-        return user;
-    }
 }
@@ -0,0 +1,32 @@
+package com.passwordxl.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计丢弃数量的异步日志
+ * <p>
+ * 日志先进入有界队列，由后台线程批量写出，请求线程不等待输出。
+ * 队列剩余容量低于阈值时丢弃 INFO 及以下日志，队列已满时丢弃所有日志，丢弃数量通过指标暴露。
+ * 容量检查与入队之间存在竞争，并发写满时个别丢弃可能未被计入。
+ */
+public class DropCountingAsyncAppender extends AsyncAppender {
+
+    private static final LongAdder DROPPED = new LongAdder();
+
+    public static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        int remaining = getRemainingCapacity();
+        if (remaining == 0 || remaining < getDiscardingThreshold() && isDiscardable(event)) {
+            DROPPED.increment();
+            return;
+        }
+        super.append(event);
+    }
+}
@@ -5,6 +5,8 @@ import com.alibaba.fastjson2.JSONObject;
 import com.passwordxl.bean.User;
 import com.passwordxl.common.RestResult;
 import com.passwordxl.service.DataService;
+import com.passwordxl.service.ServiceMetrics;
+import com.passwordxl.service.TokenService;
 import com.passwordxl.util.JwtUtil;
 import com.passwordxl.util.UserContent;
 import jakarta.servlet.FilterChain;
@@ -12,6 +14,7 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -19,8 +22,16 @@ import java.io.IOException;
 import java.io.PrintWriter;
 
 @Component
+@RequiredArgsConstructor
 public class LoginFilter extends OncePerRequestFilter {
 
+    // 当前请求token声明的请求属性名
+    public static final String CLAIMS_ATTRIBUTE = "password-xl.claims";
+    // 未登录响应内容，固定不变只序列化一次
+    private static final String UNAUTHORIZED_CONTENT = JSONObject.toJSONString(RestResult.genErrorResult(HttpStatus.HTTP_UNAUTHORIZED, "未登录"));
+
+    private final TokenService tokenService;
+    private final ServiceMetrics serviceMetrics;
 
     @Override
     protected boolean shouldNotFilter(HttpServletRequest request) {
@@ -39,7 +50,9 @@ public class LoginFilter extends OncePerRequestFilter {
 
                 || uri.startsWith("/icons/")
                 || uri.startsWith("/assets/")
-                || uri.startsWith("/image/");
+                || uri.startsWith("/image/")
+                // 复制接口使用共享密钥校验
+                || uri.startsWith("/replication/");
     }
 
     @Override
@@ -49,23 +62,46 @@ public class LoginFilter extends OncePerRequestFilter {
         String token = request.getHeader("Authorization");
         if (token != null && token.startsWith("Bearer ")) {
             token = token.substring(7);
-            if (JwtUtil.validateToken(token)) {
-                String username = JwtUtil.getUsernameFromToken(token);
-                User user = DataService.users.get(username);
-                UserContent.setUser(user);
-                chain.doFilter(request, response);
-                UserContent.clearUser();
+        } else if ("/events".equals(request.getRequestURI())) {
+            // EventSource 无法设置请求头，仅变化通知允许通过参数传递token
+            token = request.getParameter("token");
+        } else {
+            token = null;
+        }
+        if (token != null) {
+            JwtUtil.Claims claims = tokenService.authenticate(token);
+            User user = claims == null ? null : DataService.users.get(claims.username());
+            // 已禁用的用户即使持有未过期的token也不能访问
+            if (user != null && (user.getStatus() == null || user.getStatus() != 0)) {
+                request.setAttribute(CLAIMS_ATTRIBUTE, claims);
+                serviceMetrics.userSeen(user.getUsername());
+                doFilterAs(user, request, response, chain);
                 return;
             }
         }
 
         // 未登录
-        String content = JSONObject.toJSONString(RestResult.genErrorResult(HttpStatus.HTTP_UNAUTHORIZED, "未登录"));
+        serviceMetrics.authFailed();
         response.setStatus(HttpStatus.HTTP_UNAUTHORIZED);
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         PrintWriter writer = response.getWriter();
-        writer.write(content);
+        writer.write(UNAUTHORIZED_CONTENT);
         writer.flush();
     }
+
+    private static void doFilterAs(User user, HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try {
+            UserContent.callAs(user, () -> {
+                chain.doFilter(request, response);
+                return null;
+            });
+        } catch (ServletException | IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // doFilter 只会抛出以上异常
+            throw new ServletException(e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.passwordxl.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+/**
+ * 主从复制配置
+ * <p>
+ * 主节点记录每次提交的变更，从节点通过 HTTP 拉取变更并转发写请求，所有节点使用相同的用户配置与共享密钥。
+ */
+@Configuration
+public class ReplicationConfig {
+
+    /**
+     * 复制角色
+     */
+    public enum Role {
+        // 单节点，不记录变更
+        NONE,
+        // 主节点，接受写入并记录变更
+        LEADER,
+        // 从节点，只读，从主节点同步数据
+        FOLLOWER
+    }
+
+    // 转发与拉取变更的请求头：转发的请求 / 主节点最新序号 / 共享密钥
+    public static final String FORWARDED_HEADER = "X-Replication-Forwarded";
+    public static final String SEQ_HEADER = "X-Replication-Seq";
+    public static final String SECRET_HEADER = "X-Replication-Secret";
+
+    /**
+     * 访问主节点的HTTP客户端，从节点拉取变更与转发写请求共用连接
+     */
+    @Bean
+    public HttpClient replicationHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+}
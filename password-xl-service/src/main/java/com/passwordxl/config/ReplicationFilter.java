@@ -0,0 +1,179 @@
+package com.passwordxl.config;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.HttpStatus;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.service.ReplicationFollower;
+import com.passwordxl.service.ReplicationService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 写请求转发
+ * <p>
+ * 从节点把写请求原样转发给主节点，由主节点完成登录校验与写入，响应原样返回给客户端；
+ * 主节点在转发请求的响应中带上最新序号，从节点等待同步到该序号后再返回，客户端随后在从节点上能读到自己的写入。
+ * 在登录校验之前执行，读请求不经过转发。主节点只处理带有复制密钥的写请求，
+ * 客户端自行设置转发请求头不会使响应被缓存。
+ */
+@Slf4j
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class ReplicationFilter extends OncePerRequestFilter {
+
+    // 需要转发的写接口
+    private static final Set<String> WRITE_PATHS = Set.of("/put", "/patch", "/delete", "/batch", "/gcImages",
+            "/restore", "/refreshToken", "/logout");
+    // 不能转发的逐跳请求头与响应头，以及 HttpClient 不允许设置的请求头
+    private static final Set<String> HOP_HEADERS = Set.of("connection", "keep-alive", "transfer-encoding", "te",
+            "trailer", "upgrade", "proxy-connection", "host", "content-length", "expect");
+    // 客户端不能设置的复制请求头，转发时由从节点重新设置
+    private static final Set<String> REPLICATION_HEADERS = Set.of(ReplicationConfig.FORWARDED_HEADER.toLowerCase(),
+            ReplicationConfig.SECRET_HEADER.toLowerCase(), ReplicationConfig.SEQ_HEADER.toLowerCase());
+    // 转发请求的超时时间，与上传大小上限相匹配
+    private static final Duration FORWARD_TIMEOUT = Duration.ofMinutes(2);
+
+    private final ReplicationService replicationService;
+    private final ReplicationFollower replicationFollower;
+    private final HttpClient httpClient;
+    private final Duration forwardWait;
+    private final String secret;
+
+    public ReplicationFilter(ReplicationService replicationService, ReplicationFollower replicationFollower,
+                             HttpClient replicationHttpClient,
+                             @Value("${password-xl.replication.forward-wait:5s}") Duration forwardWait,
+                             @Value("${password-xl.replication.secret:}") String secret) {
+        this.replicationService = replicationService;
+        this.replicationFollower = replicationFollower;
+        this.httpClient = replicationHttpClient;
+        this.forwardWait = forwardWait;
+        this.secret = secret;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!isWrite(request)) {
+            return true;
+        }
+        if (replicationService.isLeader()) {
+            return request.getHeader(ReplicationConfig.FORWARDED_HEADER) == null || !isTrusted(request);
+        }
+        return !replicationFollower.isEnabled();
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain chain)
+            throws ServletException, IOException {
+        if (replicationService.isLeader()) {
+            // 响应体先缓存，写入完成后才能确定序号响应头
+            ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+            chain.doFilter(request, wrapper);
+            wrapper.setHeader(ReplicationConfig.SEQ_HEADER, String.valueOf(replicationService.lastSeq()));
+            wrapper.copyBodyToResponse();
+            return;
+        }
+        forward(request, response);
+    }
+
+    private void forward(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String query = request.getQueryString();
+        URI uri = URI.create(replicationFollower.getLeaderUrl() + request.getRequestURI() + (query == null ? "" : "?" + query));
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(FORWARD_TIMEOUT)
+                .method(request.getMethod(), HttpRequest.BodyPublishers.ofInputStream(() -> {
+                    try {
+                        return request.getInputStream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!HOP_HEADERS.contains(name.toLowerCase()) && !REPLICATION_HEADERS.contains(name.toLowerCase())) {
+                for (String value : Collections.list(request.getHeaders(name))) {
+                    builder.header(name, value);
+                }
+            }
+        }
+        builder.header(ReplicationConfig.FORWARDED_HEADER, request.getRemoteAddr());
+        builder.header(ReplicationConfig.SECRET_HEADER, secret);
+
+        HttpResponse<InputStream> forwarded;
+        try {
+            forwarded = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            log.warn("forward to leader failed uri: {} error: {}", request.getRequestURI(), e.toString());
+            writeError(response);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeError(response);
+            return;
+        }
+        try (InputStream body = forwarded.body()) {
+            forwarded.headers().firstValueAsLong(ReplicationConfig.SEQ_HEADER).ifPresent(seq -> {
+                if (!replicationFollower.awaitApplied(seq, forwardWait)) {
+                    log.info("forward wait replication timeout uri: {} seq: {} applied: {}", request.getRequestURI(), seq, replicationFollower.getAppliedSeq());
+                }
+            });
+            response.setStatus(forwarded.statusCode());
+            forwarded.headers().map().forEach((name, values) -> {
+                if (!HOP_HEADERS.contains(name.toLowerCase()) && !name.startsWith(":")) {
+                    values.forEach(value -> response.addHeader(name, value));
+                }
+            });
+            body.transferTo(response.getOutputStream());
+        }
+    }
+
+    /**
+     * 转发请求需携带复制密钥
+     */
+    private boolean isTrusted(HttpServletRequest request) {
+        String provided = request.getHeader(ReplicationConfig.SECRET_HEADER);
+        return StrUtil.isNotBlank(secret) && provided != null
+                && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), provided.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isWrite(HttpServletRequest request) {
+        String method = request.getMethod();
+        String uri = request.getRequestURI();
+        if ("PUT".equals(method)) {
+            return uri.startsWith("/raw/");
+        }
+        return "POST".equals(method) && (WRITE_PATHS.contains(uri) || uri.startsWith("/uploadImage/"));
+    }
+
+    private static void writeError(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.HTTP_UNAVAILABLE);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(JSONObject.toJSONString(RestResult.genErrorResult(HttpStatus.HTTP_UNAVAILABLE, "主节点不可用，暂时无法写入")));
+        writer.flush();
+    }
+}
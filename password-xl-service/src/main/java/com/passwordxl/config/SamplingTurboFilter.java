@@ -0,0 +1,54 @@
+package com.passwordxl.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按日志类别采样
+ * <p>
+ * 指定类别及其子类别的日志按比例随机保留，WARN 及以上级别始终保留。
+ * 在日志事件创建前判断，被丢弃的日志不产生格式化开销。
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+    private String category;
+    private String prefix;
+    // 保留比例，0 到 1
+    private double rate = 1.0;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        // format 为空是 isXxxEnabled 查询，只在真正输出时采样，避免同一条日志被采样两次
+        if (format == null || rate >= 1.0 || level.isGreaterOrEqual(Level.WARN)) {
+            return FilterReply.NEUTRAL;
+        }
+        String name = logger.getName();
+        if (!name.equals(category) && !name.startsWith(prefix)) {
+            return FilterReply.NEUTRAL;
+        }
+        return ThreadLocalRandom.current().nextDouble() < rate ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    @Override
+    public void start() {
+        if (category == null) {
+            addError("No category set for " + getName());
+            return;
+        }
+        prefix = category + ".";
+        super.start();
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+}
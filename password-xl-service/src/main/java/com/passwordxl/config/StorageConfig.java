@@ -0,0 +1,51 @@
+package com.passwordxl.config;
+
+import com.passwordxl.service.AtomicFileWriter;
+import com.passwordxl.service.FileStorageEngine;
+import com.passwordxl.service.PageFileStorageEngine;
+import com.passwordxl.service.StorageEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 存储引擎配置
+ * <p>
+ * 按 password-xl.storage.engine 在启动时选择引擎，原生镜像中同样可以通过配置切换。
+ */
+@Slf4j
+@Configuration
+public class StorageConfig {
+
+    /**
+     * 存储引擎类型
+     */
+    public enum Engine {
+        // 每个key一个文件
+        FILE,
+        // 全部内容保存在一个分页文件中
+        PAGE
+    }
+
+    @Bean
+    public StorageEngine storageEngine(@Value("${password-xl.storage.engine:file}") Engine engine,
+                                       AtomicFileWriter atomicFileWriter) {
+        log.info("storage engine: {}", engine);
+        return create(engine, atomicFileWriter);
+    }
+
+    /**
+     * 创建存储引擎
+     *
+     * @param engine           引擎类型
+     * @param atomicFileWriter 文件写入，分页引擎只使用其持久化级别
+     * @return 存储引擎
+     */
+    public static StorageEngine create(Engine engine, AtomicFileWriter atomicFileWriter) {
+        return switch (engine) {
+            case FILE -> new FileStorageEngine(atomicFileWriter);
+            case PAGE -> new PageFileStorageEngine(atomicFileWriter.getDurability());
+        };
+    }
+}
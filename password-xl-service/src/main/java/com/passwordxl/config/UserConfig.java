@@ -0,0 +1,172 @@
+package com.passwordxl.config;
+
+import com.moandjiezana.toml.Toml;
+import com.passwordxl.bean.User;
+import com.passwordxl.service.ChangeNotifier;
+import com.passwordxl.service.DataService;
+import com.passwordxl.service.TokenService;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 用户配置
+ * <p>
+ * 解析 password-xl.toml 并整体替换用户列表；监听配置文件所在目录，配置文件变化后防抖重新加载，目录中其他文件的变化忽略。
+ * 配置格式错误时保留之前的用户列表，被删除、禁用或修改密码的用户已签发的token全部失效，变化通知连接随即关闭。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserConfig {
+
+    // 文件变化后等待不再变化的时间
+    private static final long DEBOUNCE_MILLIS = 500;
+    // 文件持续变化时，从第一次变化起最长等待的时间
+    private static final long MAX_DEBOUNCE_MILLIS = 5000;
+
+    private final TokenService tokenService;
+    private final ChangeNotifier changeNotifier;
+
+    private volatile WatchService watchService;
+
+    /**
+     * 加载用户配置
+     *
+     * @param configFile 配置文件
+     * @throws RuntimeException 配置文件格式错误或未配置用户
+     */
+    public void load(File configFile) {
+        Map<String, User> users = parse(configFile);
+        Map<String, User> previous = DataService.users;
+        DataService.users = users;
+        previous.forEach((username, old) -> {
+            User current = users.get(username);
+            if (current == null || isDisabled(current) && !isDisabled(old)
+                    || !Objects.equals(current.getPassword(), old.getPassword())) {
+                tokenService.revokeUser(username);
+                changeNotifier.closeUser(username);
+            }
+        });
+        log.info("配置用户数: {}", users.size());
+    }
+
+    /**
+     * 监听配置文件变化
+     *
+     * @param configFile 配置文件
+     */
+    public void watch(File configFile) {
+        Path dir = configFile.getAbsoluteFile().toPath().getParent();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.warn("用户配置文件监听失败，修改配置后需重启服务: {}", e.getMessage());
+            return;
+        }
+        Thread thread = new Thread(() -> watchLoop(configFile), "user-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("监听用户配置文件: {}", configFile.getAbsolutePath());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watchLoop(File configFile) {
+        String fileName = configFile.getName();
+        try {
+            while (true) {
+                if (!drain(watchService.take(), fileName)) {
+                    continue;
+                }
+                // 防抖：一次保存通常产生多个事件，等待配置文件不再变化后再加载，文件持续变化时最长等待 MAX_DEBOUNCE_MILLIS
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DEBOUNCE_MILLIS);
+                long quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS);
+                long wait;
+                while ((wait = Math.min(quietUntil, deadline) - System.nanoTime()) > 0) {
+                    WatchKey key = watchService.poll(wait, TimeUnit.NANOSECONDS);
+                    if (key != null && drain(key, fileName)) {
+                        quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS);
+                    }
+                }
+                if (!configFile.exists()) {
+                    continue;
+                }
+                try {
+                    load(configFile);
+                    log.info("用户配置已重新加载: {}", configFile.getAbsolutePath());
+                } catch (Exception e) {
+                    log.error("用户配置加载失败，继续使用之前的配置: {}", e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("user config watcher closed");
+        }
+    }
+
+    /**
+     * 取出监听事件，只关心配置文件本身的变化，目录中其他文件的变化忽略
+     *
+     * @return 是否包含配置文件的变化，事件溢出时按有变化处理
+     */
+    private static boolean drain(WatchKey key, String fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || event.context() instanceof Path path && path.toString().equals(fileName)) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private static Map<String, User> parse(File configFile) {
+        Toml toml = new Toml().read(configFile);
+        List<Map<String, Object>> maps = toml.getList("user");
+        if (maps == null || maps.isEmpty()) {
+            throw new RuntimeException("未配置用户");
+        }
+        List<User> users = maps.stream().map(UserConfig::mapToUser).toList();
+        return Map.copyOf(users.stream().collect(Collectors.toMap(User::getUsername, Function.identity())));
+    }
+
+    private static User mapToUser(Map<String, Object> map) {
+        User user = new User();
+        user.setUsername((String) map.get("username"));
+        user.setPassword((String) map.get("password"));
+        if (map.get("status") instanceof Number status) {
+            user.setStatus(status.intValue());
+        }
+        return user;
+    }
+
+    private static boolean isDisabled(User user) {
+        return user.getStatus() != null && user.getStatus() == 0;
+    }
+}
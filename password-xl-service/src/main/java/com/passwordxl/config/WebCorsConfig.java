@@ -16,6 +16,7 @@ public class WebCorsConfig implements WebMvcConfigurer {
                 .allowedOriginPatterns("*")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders("ETag", "X-Backup-Marker", "Content-Disposition")
                 .allowCredentials(true)
                 .maxAge(86400);
     }
@@ -2,18 +2,41 @@ package com.passwordxl.controller;
 
 import cn.hutool.http.HttpStatus;
 import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.BatchParam;
+import com.passwordxl.bean.ContentVersion;
 import com.passwordxl.bean.DeleteContentParam;
+import com.passwordxl.bean.GcImageParam;
 import com.passwordxl.bean.GetContentParam;
+import com.passwordxl.bean.GetDeltaParam;
+import com.passwordxl.bean.GetVersionParam;
 import com.passwordxl.bean.LoginParam;
+import com.passwordxl.bean.PatchContentParam;
 import com.passwordxl.bean.PutContentParam;
 import com.passwordxl.common.RestResult;
+import com.passwordxl.config.LoginFilter;
+import com.passwordxl.service.BackupService;
+import com.passwordxl.service.BatchService;
+import com.passwordxl.service.ChangeNotifier;
+import com.passwordxl.service.ContentCache;
 import com.passwordxl.service.PasswordXLService;
+import com.passwordxl.service.ReplicationFollower;
+import com.passwordxl.service.ThumbnailCache;
+import com.passwordxl.util.JwtUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -21,6 +44,12 @@ import org.springframework.web.multipart.MultipartFile;
 public class PasswordXLController {
 
     private final PasswordXLService passwordXLService;
+    private final ContentCache contentCache;
+    private final BatchService batchService;
+    private final ChangeNotifier changeNotifier;
+    private final ReplicationFollower replicationFollower;
+    private final BackupService backupService;
+    private final ThumbnailCache thumbnailCache;
 
     /**
      * 检测
@@ -31,6 +60,40 @@ public class PasswordXLController {
         return RestResult.genSuccessResult();
     }
 
+    /**
+     * 运行统计
+     *
+     */
+    @GetMapping("service/stats")
+    public RestResult<JSONObject> stats() {
+        JSONObject cache = new JSONObject();
+        cache.put("hits", contentCache.getHits());
+        cache.put("misses", contentCache.getMisses());
+        cache.put("evictions", contentCache.getEvictions());
+        cache.put("count", contentCache.getCount());
+        cache.put("bytes", contentCache.getCurrentBytes());
+        cache.put("maxBytes", contentCache.getMaxBytes());
+        JSONObject result = new JSONObject();
+        result.put("contentCache", cache);
+        JSONObject thumbnail = new JSONObject();
+        thumbnail.put("hits", thumbnailCache.getHits());
+        thumbnail.put("misses", thumbnailCache.getMisses());
+        thumbnail.put("coalesced", thumbnailCache.getCoalesced());
+        thumbnail.put("evictions", thumbnailCache.getEvictions());
+        thumbnail.put("count", thumbnailCache.getCount());
+        thumbnail.put("bytes", thumbnailCache.getCurrentBytes());
+        thumbnail.put("maxBytes", thumbnailCache.getMaxBytes());
+        result.put("thumbnailCache", thumbnail);
+        result.put("subscribers", changeNotifier.getSubscriberCount());
+        if (replicationFollower.isEnabled()) {
+            JSONObject replication = new JSONObject();
+            replication.put("appliedSeq", replicationFollower.getAppliedSeq());
+            replication.put("leaderSeq", replicationFollower.getLeaderSeq());
+            result.put("replication", replication);
+        }
+        return RestResult.genSuccessResult(result);
+    }
+
     /**
      * 登录
      *
@@ -42,6 +105,39 @@ public class PasswordXLController {
         return passwordXLService.login(loginParam);
     }
 
+    /**
+     * 刷新token
+     *
+     * @return 新token
+     */
+    @PostMapping("refreshToken")
+    public RestResult<String> refreshToken(HttpServletRequest request) {
+        return passwordXLService.refreshToken((JwtUtil.Claims) request.getAttribute(LoginFilter.CLAIMS_ATTRIBUTE));
+    }
+
+    /**
+     * 退出登录
+     *
+     * @return 结果
+     */
+    @PostMapping("logout")
+    public RestResult<String> logout(HttpServletRequest request) {
+        return passwordXLService.logout((JwtUtil.Claims) request.getAttribute(LoginFilter.CLAIMS_ATTRIBUTE));
+    }
+
+    /**
+     * 订阅内容变化
+     * <p>
+     * 浏览器 EventSource 无法设置请求头，token 通过 token 参数传递
+     *
+     * @return SSE连接，推送 change 事件：{key, etag}，删除时etag为null
+     */
+    @GetMapping(value = "events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(HttpServletRequest request) {
+        JwtUtil.Claims claims = (JwtUtil.Claims) request.getAttribute(LoginFilter.CLAIMS_ATTRIBUTE);
+        return changeNotifier.subscribe(claims.username(), claims.id());
+    }
+
     /**
      * 上传
      *
@@ -72,6 +168,51 @@ public class PasswordXLController {
         }
     }
 
+    /**
+     * 增量上传
+     *
+     * @param patchContentParam 增量参数
+     * @return 结果
+     */
+    @PostMapping("patch")
+    public RestResult<JSONObject> patch(@RequestBody PatchContentParam patchContentParam) {
+        try {
+            return passwordXLService.patchContent(patchContentParam);
+        } catch (Exception e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 增量获取
+     *
+     * @param getDeltaParam 增量获取参数
+     * @return 修改片段或完整内容
+     */
+    @PostMapping("getDelta")
+    public RestResult<JSONObject> getDelta(@RequestBody GetDeltaParam getDeltaParam) {
+        try {
+            return passwordXLService.getDelta(getDeltaParam);
+        } catch (Exception e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 批量操作
+     *
+     * @param batchParam 批量参数
+     * @return 与操作顺序一致的结果列表
+     */
+    @PostMapping("batch")
+    public RestResult<List<RestResult<?>>> batch(@RequestBody BatchParam batchParam) {
+        try {
+            return batchService.batch(batchParam);
+        } catch (Exception e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
     /**
      * 删除
      *
@@ -102,6 +243,54 @@ public class PasswordXLController {
         }
     }
 
+    /**
+     * 获取历史版本列表
+     *
+     * @param getContentParam 获取参数
+     * @return 版本列表，最新版本在前
+     */
+    @PostMapping("listVersions")
+    public RestResult<List<ContentVersion>> listVersions(@RequestBody GetContentParam getContentParam) {
+        try {
+            return passwordXLService.listVersions(getContentParam);
+        } catch (Exception e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取历史版本内容
+     *
+     * @param getVersionParam 获取参数
+     * @return 内容
+     */
+    @PostMapping("getVersion")
+    public RestResult<JSONObject> getVersion(@RequestBody GetVersionParam getVersionParam) {
+        try {
+            return passwordXLService.getVersion(getVersionParam);
+        } catch (Exception e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 流式获取内容
+     *
+     */
+    @GetMapping("/raw/**")
+    public void getRaw(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        passwordXLService.getRaw(rawKey(request), request, response);
+    }
+
+    /**
+     * 流式上传内容
+     *
+     */
+    @PutMapping("/raw/**")
+    public void putRaw(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        passwordXLService.putRaw(rawKey(request), request, response);
+    }
+
     /**
      * 上传图片
      *
@@ -112,14 +301,71 @@ public class PasswordXLController {
         return RestResult.genSuccessResult(result);
     }
 
+    /**
+     * 清理不再被引用的图片
+     *
+     * @param gcImageParam 清理参数
+     * @return 结果
+     */
+    @PostMapping("gcImages")
+    public RestResult<JSONObject> gcImages(@RequestBody GcImageParam gcImageParam) {
+        try {
+            return passwordXLService.gcImages(gcImageParam);
+        } catch (Exception e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 流式备份，备份标记通过 X-Backup-Marker 响应头返回
+     *
+     * @param format 归档格式 zip / tar
+     * @param since  上次备份的标记，传入时只包含之后修改的内容与新增的图片
+     */
+    @GetMapping("backup")
+    public void backup(@RequestParam(value = "format", defaultValue = "zip") String format,
+                       @RequestParam(value = "since", required = false) Long since,
+                       HttpServletResponse response) throws IOException {
+        backupService.backup(format, since, response);
+    }
+
+    /**
+     * 流式恢复备份，请求体为备份文件，依次恢复全量备份与之后的增量备份
+     * <p>
+     * 请求体不能使用表单类型的 Content-Type，否则会被当作表单参数读取
+     *
+     * @param format 归档格式 zip / tar
+     * @return 恢复结果
+     */
+    @PostMapping("restore")
+    public RestResult<JSONObject> restore(@RequestParam(value = "format", defaultValue = "zip") String format,
+                                          HttpServletRequest request) {
+        try {
+            return backupService.restore(format, request);
+        } catch (Exception e) {
+            log.error("restore error", e);
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
     /**
      * 下载图片
      *
+     * @param size 最大边长，传入时返回缩略图
      */
     @GetMapping("/image/**")
-    public void image(HttpServletRequest request, HttpServletResponse response) {
+    public ResponseEntity<Resource> image(@RequestParam(value = "size", required = false) Integer size,
+                                          HttpServletRequest request) {
         String requestURI = request.getRequestURI();
         String objectKey = requestURI.substring(requestURI.indexOf("/image/") + 7);
-        passwordXLService.image(objectKey, response);
+        return passwordXLService.image(objectKey, size);
+    }
+
+    /**
+     * 从请求路径中取出内容key，requestURI 未经解码，需解码后才与 JSON 接口的key一致
+     */
+    private static String rawKey(HttpServletRequest request) {
+        String requestURI = request.getRequestURI();
+        return UriUtils.decode(requestURI.substring(requestURI.indexOf("/raw/") + 5), StandardCharsets.UTF_8);
     }
-}
+}
\ No newline at end of file
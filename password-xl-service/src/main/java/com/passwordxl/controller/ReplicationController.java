@@ -0,0 +1,125 @@
+package com.passwordxl.controller;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.HttpStatus;
+import com.passwordxl.bean.ReplicationBatch;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.config.ReplicationConfig;
+import com.passwordxl.service.ReplicationService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 主从复制接口，从节点使用共享密钥访问，不经过登录校验
+ */
+@Slf4j
+@RestController
+public class ReplicationController {
+
+    private final ReplicationService replicationService;
+    private final byte[] secret;
+
+    public ReplicationController(ReplicationService replicationService,
+                                 @Value("${password-xl.replication.role:none}") ReplicationConfig.Role role,
+                                 @Value("${password-xl.replication.secret:}") String secret) {
+        if (role != ReplicationConfig.Role.NONE && StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("开启复制时需要配置 password-xl.replication.secret");
+        }
+        this.replicationService = replicationService;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 拉取变更
+     *
+     * @param logId 已同步的日志id
+     * @param after 已同步的序号
+     * @param wait  没有新变更时的最长等待毫秒数
+     * @return 变更
+     */
+    @GetMapping("replication/changes")
+    public RestResult<ReplicationBatch> changes(HttpServletRequest request, HttpServletResponse response,
+                                                @RequestParam(value = "logId", defaultValue = "") String logId,
+                                                @RequestParam(value = "after", defaultValue = "0") long after,
+                                                @RequestParam(value = "wait", defaultValue = "0") long wait) {
+        RestResult<ReplicationBatch> denied = checkAccess(request);
+        if (denied != null) {
+            return denied;
+        }
+        try {
+            ReplicationBatch batch = replicationService.changes(logId, after, wait);
+            response.setHeader(ReplicationConfig.SEQ_HEADER, String.valueOf(replicationService.lastSeq()));
+            return RestResult.genSuccessResult(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RestResult.genErrorResult(HttpStatus.HTTP_UNAVAILABLE, "服务正在关闭");
+        } catch (Exception e) {
+            log.error("replication changes error after: {}", after, e);
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 全量同步列表
+     *
+     * @return 当前序号与全部内容、图片
+     */
+    @GetMapping("replication/snapshot")
+    public RestResult<ReplicationBatch> snapshot(HttpServletRequest request, HttpServletResponse response) {
+        RestResult<ReplicationBatch> denied = checkAccess(request);
+        if (denied != null) {
+            return denied;
+        }
+        try {
+            ReplicationBatch batch = replicationService.snapshot();
+            response.setHeader(ReplicationConfig.SEQ_HEADER, String.valueOf(replicationService.lastSeq()));
+            return RestResult.genSuccessResult(batch);
+        } catch (Exception e) {
+            log.error("replication snapshot error", e);
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 拉取全量同步的数据
+     *
+     * @param fetchParam 要拉取的内容与图片
+     * @return 当前状态，数据量较大时只包含前面一部分
+     */
+    @PostMapping("replication/fetch")
+    public RestResult<ReplicationBatch> fetch(HttpServletRequest request, @RequestBody ReplicationBatch fetchParam) {
+        RestResult<ReplicationBatch> denied = checkAccess(request);
+        if (denied != null) {
+            return denied;
+        }
+        try {
+            ReplicationBatch batch = new ReplicationBatch();
+            batch.setChanges(replicationService.fetch(fetchParam.getChanges()));
+            return RestResult.genSuccessResult(batch);
+        } catch (Exception e) {
+            log.error("replication fetch error", e);
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    /**
+     * 只有主节点提供复制接口，密钥按固定时间比较
+     */
+    private <T> RestResult<T> checkAccess(HttpServletRequest request) {
+        if (!replicationService.isLeader()) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_FORBIDDEN, "当前节点不是主节点");
+        }
+        String provided = request.getHeader(ReplicationConfig.SECRET_HEADER);
+        if (provided == null || !MessageDigest.isEqual(secret, provided.getBytes(StandardCharsets.UTF_8))) {
+            log.warn("replication secret mismatch from: {}", request.getRemoteAddr());
+            return RestResult.genErrorResult(HttpStatus.HTTP_UNAUTHORIZED, "复制密钥错误");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+package com.passwordxl.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 原子文件写入
+ * <p>
+ * 先写入同目录下的临时文件，按持久化级别刷盘后通过原子重命名替换目标文件。
+ * 进程在写入过程中被终止时，目标文件保持为上一次完整写入的内容。
+ */
+@Slf4j
+@Component
+public class AtomicFileWriter {
+
+    /**
+     * 持久化级别
+     */
+    public enum Durability {
+        // 仅原子替换，不主动刷盘
+        NONE,
+        // 替换前刷盘临时文件
+        FSYNC_FILE,
+        // 刷盘临时文件，替换后再刷盘所在目录
+        FSYNC_DIR
+    }
+
+    /**
+     * 向文件通道写入内容
+     */
+    @FunctionalInterface
+    public interface ChannelWriter {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    private final Durability durability;
+
+    public AtomicFileWriter(@Value("${password-xl.storage.durability:fsync-file}") Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * 原子写入内容
+     *
+     * @param target  目标文件
+     * @param content 内容
+     */
+    public void write(Path target, byte[] content) throws IOException {
+        write(target, channel -> {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        });
+    }
+
+    /**
+     * 原子写入内容
+     *
+     * @param target 目标文件
+     * @param writer 写入临时文件的逻辑
+     */
+    public void write(Path target, ChannelWriter writer) throws IOException {
+        commit(writeTemp(target.getParent(), "." + target.getFileName(), writer), target);
+    }
+
+    /**
+     * 在目录下写入临时文件，用于写入完成后才能确定目标文件名的场景
+     *
+     * @param dir    所在目录，必须与目标文件相同
+     * @param prefix 临时文件名前缀，以.开头的临时文件不会被当作内容
+     * @param writer 写入逻辑
+     * @return 临时文件
+     */
+    public Path writeTemp(Path dir, String prefix, ChannelWriter writer) throws IOException {
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, prefix, ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            writer.writeTo(channel);
+            if (durability != Durability.NONE) {
+                channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * 将临时文件原子替换为目标文件
+     *
+     * @param temp   {@link #writeTemp} 写入的临时文件
+     * @param target 目标文件
+     */
+    public void commit(Path temp, Path target) throws IOException {
+        try {
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (durability == Durability.FSYNC_DIR) {
+            fsyncDir(target.getParent());
+        }
+    }
+
+    /**
+     * 删除文件
+     *
+     * @param target 目标文件
+     * @return 文件存在并被删除时返回true
+     */
+    public boolean delete(Path target) throws IOException {
+        boolean deleted = Files.deleteIfExists(target);
+        if (deleted && durability == Durability.FSYNC_DIR) {
+            fsyncDir(target.getParent());
+        }
+        return deleted;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * 刷盘目录，使重命名与删除持久化。部分平台不支持打开目录，此时忽略
+     */
+    static void fsyncDir(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("fsync dir not supported: {}", dir);
+        }
+    }
+}
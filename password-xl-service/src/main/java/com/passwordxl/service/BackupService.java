@@ -0,0 +1,462 @@
+package com.passwordxl.service;
+
+import cn.hutool.http.HttpStatus;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.ContentMeta;
+import com.passwordxl.bean.DeleteContentParam;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.util.TarArchive;
+import com.passwordxl.util.UserContent;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 用户数据的流式备份与恢复
+ * <p>
+ * 备份按 zip 或 tar.gz 格式边读取边压缩写出，内容与图片逐个从存储中流式读取，内存占用与数据量无关。
+ * 归档的第一个文件为清单 {@value #MANIFEST}，记录备份标记以及备份时全部内容的标记与全部图片路径；
+ * 之后是内容（按key保存）与图片（images/ 下），与用户目录的结构一致。
+ * <p>
+ * 增量备份传入上次备份的标记，只包含之后修改过的内容与新增的图片，清单仍列出全部内容。
+ * 恢复时按清单处理：与本地标记一致的内容跳过，清单中没有的本地内容删除，
+ * 依次恢复全量备份与之后的各个增量备份即可得到最后一次备份时的数据，多余的图片由图片清理删除。
+ * 标记为备份开始时本节点的时间，增量备份需要在同一个节点上进行。
+ */
+@Slf4j
+@Service
+public class BackupService {
+
+    public static final String MANIFEST = ".backup.json";
+    public static final String MARKER_HEADER = "X-Backup-Marker";
+    // 增量备份多包含标记之前这段时间内的修改，避免文件时间精度不足时遗漏
+    private static final long MARKER_OVERLAP_MILLIS = 2000;
+    // 已经压缩过的图片格式，zip 中直接存储
+    private static final Set<String> COMPRESSED_IMAGES = Set.of("jpg", "jpeg", "png", "gif", "webp", "heif", "heic");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 归档格式
+     */
+    public enum Format {
+        ZIP("application/zip", ".zip"),
+        TAR("application/gzip", ".tar.gz");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /**
+         * @param name zip / tar
+         * @return 格式，不支持时返回null
+         */
+        public static Format of(String name) {
+            return switch (name == null ? "zip" : name.toLowerCase()) {
+                case "zip" -> ZIP;
+                case "tar", "tgz", "tar.gz" -> TAR;
+                default -> null;
+            };
+        }
+    }
+
+    private final PasswordXLService passwordXLService;
+    private final ContentMetaIndex contentMetaIndex;
+    private final ContentCodec contentCodec;
+    private final ImageStore imageStore;
+    private final int level;
+
+    public BackupService(PasswordXLService passwordXLService, ContentMetaIndex contentMetaIndex,
+                         ContentCodec contentCodec, ImageStore imageStore,
+                         @Value("${password-xl.backup.level:6}") int level) {
+        this.passwordXLService = passwordXLService;
+        this.contentMetaIndex = contentMetaIndex;
+        this.contentCodec = contentCodec;
+        this.imageStore = imageStore;
+        this.level = level;
+    }
+
+    /**
+     * 流式备份当前用户的内容与图片，备份标记通过 {@value #MARKER_HEADER} 响应头返回
+     *
+     * @param formatName 归档格式 zip / tar
+     * @param since      上次备份的标记，为空时全量备份
+     * @param response   响应
+     */
+    public void backup(String formatName, Long since, HttpServletResponse response) throws IOException {
+        String username = UserContent.getUser().getUsername();
+        Format format = Format.of(formatName);
+        if (format == null) {
+            log.info("backup format not supported username: {} format: {}", username, formatName);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        // 先确定标记再列出数据，列出之后的修改下次增量备份会再包含一次
+        long marker = System.currentTimeMillis();
+        long from = since == null ? Long.MIN_VALUE : since - MARKER_OVERLAP_MILLIS;
+
+        JSONObject contents = new JSONObject();
+        List<String> changedKeys = new ArrayList<>();
+        for (String key : contentMetaIndex.keys(username).stream().sorted().toList()) {
+            ContentMeta meta = contentMetaIndex.get(username, key);
+            if (meta == null) {
+                continue;
+            }
+            JSONObject item = new JSONObject();
+            item.put("etag", meta.getEtag());
+            item.put("size", meta.getSize());
+            contents.put(key, item);
+            if (meta.getUpdateTime() >= from) {
+                changedKeys.add(key);
+            }
+        }
+        JSONArray images = new JSONArray();
+        List<String> changedImages = new ArrayList<>();
+        for (String imageKey : imageStore.imageKeys(username).stream().sorted().toList()) {
+            long lastModified;
+            try {
+                lastModified = Files.getLastModifiedTime(imageStore.path(username, imageKey)).toMillis();
+            } catch (NoSuchFileException e) {
+                // 列出之后被清理
+                continue;
+            }
+            images.add(imageKey);
+            if (lastModified >= from) {
+                changedImages.add(imageKey);
+            }
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("username", username);
+        manifest.put("marker", marker);
+        manifest.put("since", since);
+        manifest.put("contents", contents);
+        manifest.put("images", images);
+        byte[] manifestBytes = manifest.toJSONString().getBytes(StandardCharsets.UTF_8);
+
+        response.setContentType(format.contentType);
+        response.setHeader("Content-Disposition", ContentDisposition.attachment()
+                .filename(username + "-" + marker + format.extension, StandardCharsets.UTF_8).build().toString());
+        response.setHeader(MARKER_HEADER, String.valueOf(marker));
+        int writtenContents = 0;
+        int writtenImages = 0;
+        try (ArchiveWriter archive = format == Format.ZIP
+                ? new ZipArchiveWriter(new BufferedOutputStream(response.getOutputStream(), BUFFER_SIZE), level)
+                : new TarArchiveWriter(response.getOutputStream(), level)) {
+            archive.put(MANIFEST, manifestBytes.length, marker, true, new ByteArrayInputStream(manifestBytes));
+            for (String key : changedKeys) {
+                if (writeContent(archive, username, key)) {
+                    writtenContents++;
+                }
+            }
+            for (String imageKey : changedImages) {
+                if (writeImage(archive, username, imageKey)) {
+                    writtenImages++;
+                }
+            }
+        }
+        log.info("backup succeed username: {} format: {} since: {} marker: {} contents: {}/{} images: {}/{} cost: {}ms",
+                username, format, since, marker, writtenContents, contents.size(), writtenImages, images.size(),
+                System.currentTimeMillis() - marker);
+    }
+
+    /**
+     * 流式恢复当前用户的备份
+     *
+     * @param formatName 归档格式 zip / tar
+     * @param request    请求，请求体为 {@link #backup} 生成的归档
+     * @return 恢复结果
+     */
+    public RestResult<JSONObject> restore(String formatName, HttpServletRequest request) throws IOException {
+        String username = UserContent.getUser().getUsername();
+        Format format = Format.of(formatName);
+        if (format == null) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "不支持的备份格式");
+        }
+        long start = System.currentTimeMillis();
+        InputStream in = new BufferedInputStream(request.getInputStream(), BUFFER_SIZE);
+        ArchiveReader archive = format == Format.ZIP ? new ZipArchiveReader(in) : new TarArchiveReader(in);
+        ArchiveEntry entry = archive.next();
+        if (entry == null || !MANIFEST.equals(entry.name())) {
+            log.info("restore manifest missing username: {}", username);
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "备份文件格式错误");
+        }
+        JSONObject manifest = JSON.parseObject(entry.data().readAllBytes());
+        JSONObject contents = manifest == null ? null : manifest.getJSONObject("contents");
+        if (contents == null) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "备份文件格式错误");
+        }
+        JSONArray images = manifest.getJSONArray("images");
+
+        Set<String> restored = new HashSet<>();
+        int writtenImages = 0;
+        int skipped = 0;
+        while ((entry = archive.next()) != null) {
+            String name = entry.name();
+            if (name.startsWith("images/")) {
+                try {
+                    if (imageStore.restore(username, name, entry.data())) {
+                        writtenImages++;
+                    } else {
+                        skipped++;
+                    }
+                } catch (IllegalArgumentException e) {
+                    // 损坏的图片不写入，清单中的图片会出现在missing中
+                    log.warn("restore image rejected username: {} name: {} reason: {}", username, name, e.getMessage());
+                    skipped++;
+                }
+                continue;
+            }
+            JSONObject item = contents.getJSONObject(name);
+            if (item == null) {
+                log.info("restore entry not in manifest username: {} name: {}", username, name);
+                continue;
+            }
+            if (passwordXLService.restoreContent(username, name, item.getString("etag"), entry.data())) {
+                restored.add(name);
+            } else {
+                skipped++;
+            }
+        }
+
+        // 删除备份之后新增的内容
+        int deleted = 0;
+        for (String key : contentMetaIndex.keys(username)) {
+            if (!contents.containsKey(key)) {
+                DeleteContentParam deleteContentParam = new DeleteContentParam();
+                deleteContentParam.setKey(key);
+                RestResult<String> result = passwordXLService.deleteContent(username, deleteContentParam);
+                if (result.getCode() != HttpStatus.HTTP_OK) {
+                    return RestResult.genErrorResult(result.getCode(), result.getMessage());
+                }
+                deleted++;
+            }
+        }
+        // 增量备份没有包含、本地也不一致的内容，通常是没有先恢复之前的备份
+        List<String> missing = new ArrayList<>();
+        for (String key : contents.keySet()) {
+            ContentMeta meta = contentMetaIndex.get(username, key);
+            if (!restored.contains(key) && (meta == null || !meta.getEtag().equals(contents.getJSONObject(key).getString("etag")))) {
+                missing.add(key);
+            }
+        }
+        if (images != null) {
+            for (String imageKey : images.toJavaList(String.class)) {
+                if (!imageStore.exists(username, imageKey)) {
+                    missing.add(imageKey);
+                }
+            }
+        }
+        log.info("restore succeed username: {} format: {} marker: {} contents: {} images: {} skipped: {} deleted: {} missing: {} cost: {}ms",
+                username, format, manifest.get("marker"), restored.size(), writtenImages, skipped, deleted, missing.size(),
+                System.currentTimeMillis() - start);
+        JSONObject result = new JSONObject();
+        result.put("marker", manifest.get("marker"));
+        result.put("contents", restored.size());
+        result.put("images", writtenImages);
+        result.put("skipped", skipped);
+        result.put("deleted", deleted);
+        result.put("missing", missing);
+        return RestResult.genSuccessResult(result);
+    }
+
+    /**
+     * 写入内容，数据与元数据属于同一次提交，大小与数据一致
+     *
+     * @return 内容已被删除时返回false
+     */
+    private boolean writeContent(ArchiveWriter archive, String username, String key) throws IOException {
+        try (ContentMetaIndex.Snapshot snapshot = contentMetaIndex.open(username, key)) {
+            if (snapshot == null) {
+                return false;
+            }
+            ContentMeta meta = snapshot.meta();
+            try (InputStream in = contentCodec.open(snapshot.stored())) {
+                archive.put(key, meta.getSize(), meta.getUpdateTime(), true, in);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 写入图片，图片文件写入后不再变化
+     *
+     * @return 图片已被清理时返回false
+     */
+    private boolean writeImage(ArchiveWriter archive, String username, String imageKey) throws IOException {
+        Path file = imageStore.path(username, imageKey);
+        InputStream in;
+        try {
+            in = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (in) {
+            String extName = imageKey.substring(imageKey.lastIndexOf('.') + 1).toLowerCase();
+            archive.put(imageKey, Files.size(file), Files.getLastModifiedTime(file).toMillis(),
+                    !COMPRESSED_IMAGES.contains(extName), in);
+        }
+        return true;
+    }
+
+    /**
+     * 归档写入
+     */
+    private interface ArchiveWriter extends AutoCloseable {
+
+        /**
+         * @param name         文件路径
+         * @param size         文件大小
+         * @param lastModified 最后修改时间
+         * @param compress     是否需要压缩
+         * @param data         文件内容
+         */
+        void put(String name, long size, long lastModified, boolean compress, InputStream data) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * zip 按文件压缩，已压缩的图片直接存储
+     */
+    private static final class ZipArchiveWriter implements ArchiveWriter {
+        private final ZipOutputStream zip;
+        private final int level;
+
+        ZipArchiveWriter(OutputStream out, int level) {
+            this.zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+            this.level = level;
+        }
+
+        @Override
+        public void put(String name, long size, long lastModified, boolean compress, InputStream data) throws IOException {
+            zip.setLevel(compress ? level : Deflater.NO_COMPRESSION);
+            ZipEntry zipEntry = new ZipEntry(name);
+            zipEntry.setTime(lastModified);
+            zip.putNextEntry(zipEntry);
+            data.transferTo(zip);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /**
+     * tar 整体 gzip 压缩
+     */
+    private static final class TarArchiveWriter implements ArchiveWriter {
+        private final TarArchive.Writer tar;
+
+        TarArchiveWriter(OutputStream out, int level) throws IOException {
+            this.tar = new TarArchive.Writer(new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            });
+        }
+
+        @Override
+        public void put(String name, long size, long lastModified, boolean compress, InputStream data) throws IOException {
+            tar.put(name, size, lastModified, data);
+        }
+
+        @Override
+        public void close() throws IOException {
+            tar.close();
+        }
+    }
+
+    /**
+     * 归档中的文件
+     *
+     * @param name 文件路径
+     * @param data 文件内容，读取下一个文件后失效
+     */
+    private record ArchiveEntry(String name, InputStream data) {
+        ArchiveEntry {
+            // 手动重新打包的归档中路径可能以 ./ 开头
+            if (name.startsWith("./")) {
+                name = name.substring(2);
+            }
+        }
+    }
+
+    /**
+     * 归档读取，跳过目录
+     */
+    private interface ArchiveReader {
+        ArchiveEntry next() throws IOException;
+    }
+
+    private static final class ZipArchiveReader implements ArchiveReader {
+        private final ZipInputStream zip;
+
+        ZipArchiveReader(InputStream in) {
+            this.zip = new ZipInputStream(in, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public ArchiveEntry next() throws IOException {
+            ZipEntry zipEntry;
+            do {
+                zipEntry = zip.getNextEntry();
+            } while (zipEntry != null && zipEntry.isDirectory());
+            if (zipEntry == null) {
+                return null;
+            }
+            // 写入方关闭数据流时不能关闭整个归档
+            return new ArchiveEntry(zipEntry.getName(), new FilterInputStream(zip) {
+                @Override
+                public void close() {
+                }
+            });
+        }
+    }
+
+    private static final class TarArchiveReader implements ArchiveReader {
+        private final TarArchive.Reader tar;
+
+        TarArchiveReader(InputStream in) throws IOException {
+            this.tar = new TarArchive.Reader(new GZIPInputStream(in, BUFFER_SIZE));
+        }
+
+        @Override
+        public ArchiveEntry next() throws IOException {
+            TarArchive.Entry tarEntry = tar.next();
+            return tarEntry == null ? null : new ArchiveEntry(tarEntry.name(), tarEntry.data());
+        }
+    }
+}
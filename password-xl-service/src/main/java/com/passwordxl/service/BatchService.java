@@ -0,0 +1,174 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.HttpStatus;
+import com.passwordxl.bean.BatchOp;
+import com.passwordxl.bean.BatchParam;
+import com.passwordxl.bean.DeleteContentParam;
+import com.passwordxl.bean.GetContentParam;
+import com.passwordxl.bean.PutContentParam;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.util.UserContent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 批量操作
+ * <p>
+ * 一次请求内执行多个 get/put/delete/getEtag 操作，只做一次登录校验。
+ * 同一个key的操作按请求顺序依次执行，不同key之间在虚拟线程中并行执行。
+ */
+@Slf4j
+@Service
+public class BatchService {
+
+    private final PasswordXLService passwordXLService;
+    private final int maxOps;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public BatchService(PasswordXLService passwordXLService, @Value("${password-xl.batch.max-ops:100}") int maxOps) {
+        this.passwordXLService = passwordXLService;
+        this.maxOps = maxOps;
+    }
+
+    /**
+     * 执行批量操作
+     * <p>
+     * atomic为true时只能包含put操作，全部写入或全部不写入
+     *
+     * @param batchParam 批量参数
+     * @return 与操作顺序一致的结果列表
+     */
+    public RestResult<List<RestResult<?>>> batch(BatchParam batchParam) throws InterruptedException {
+        List<BatchOp> ops = batchParam.getOps();
+        if (ops == null || ops.isEmpty()) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "缺少批量操作");
+        }
+        if (ops.size() > maxOps) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "批量操作数量不能超过" + maxOps);
+        }
+        // 用户信息保存在请求线程中，需要显式传给执行操作的线程
+        String username = UserContent.getUser().getUsername();
+        boolean atomic = Boolean.TRUE.equals(batchParam.getAtomic());
+        log.info("batch username: {} count: {} atomic: {}", username, ops.size(), atomic);
+
+        if (atomic) {
+            // 原子批量中的读取或删除无法与写入保持请求顺序，只允许put
+            List<PutContentParam> putParams = new ArrayList<>(ops.size());
+            for (BatchOp op : ops) {
+                if (!"put".equals(op.getOp())) {
+                    return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "原子批量只支持put操作");
+                }
+                if (StrUtil.isBlank(op.getKey())) {
+                    return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "缺少内容key");
+                }
+                putParams.add(toPutParam(op));
+            }
+            return RestResult.genSuccessResult(putAll(username, putParams));
+        }
+
+        // 按key分组，组内保持请求顺序
+        RestResult<?>[] results = new RestResult<?>[ops.size()];
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < ops.size(); i++) {
+            groups.computeIfAbsent(StrUtil.nullToEmpty(ops.get(i).getKey()), k -> new ArrayList<>()).add(i);
+        }
+        if (groups.size() == 1) {
+            runGroup(username, ops, groups.values().iterator().next(), results);
+        } else {
+            List<Future<?>> futures = new ArrayList<>(groups.size());
+            for (List<Integer> indexes : groups.values()) {
+                futures.add(executor.submit(() -> runGroup(username, ops, indexes, results)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // runGroup 已处理单个操作的异常，这里只会是意外错误
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        return RestResult.genSuccessResult(Arrays.asList(results));
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    private List<RestResult<?>> putAll(String username, List<PutContentParam> putParams) {
+        try {
+            return new ArrayList<>(passwordXLService.putContentAll(username, putParams));
+        } catch (IllegalArgumentException e) {
+            return fill(putParams.size(), RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, e.getMessage()));
+        } catch (Exception e) {
+            log.error("batch put all error username: {}", username, e);
+            return fill(putParams.size(), RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage()));
+        }
+    }
+
+    private static List<RestResult<?>> fill(int size, RestResult<?> result) {
+        List<RestResult<?>> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(result);
+        }
+        return results;
+    }
+
+    private void runGroup(String username, List<BatchOp> ops, List<Integer> indexes, RestResult<?>[] results) {
+        for (int index : indexes) {
+            results[index] = execute(username, ops.get(index));
+        }
+    }
+
+    private RestResult<?> execute(String username, BatchOp op) {
+        if (StrUtil.isBlank(op.getKey())) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "缺少内容key");
+        }
+        try {
+            return switch (StrUtil.nullToEmpty(op.getOp())) {
+                case "get" -> passwordXLService.getContent(username, toGetParam(op));
+                case "put" -> passwordXLService.putContent(username, toPutParam(op));
+                case "delete" -> {
+                    DeleteContentParam deleteContentParam = new DeleteContentParam();
+                    deleteContentParam.setKey(op.getKey());
+                    yield passwordXLService.deleteContent(username, deleteContentParam);
+                }
+                case "getEtag" -> passwordXLService.getEtag(username, toGetParam(op));
+                default -> RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "不支持的操作：" + op.getOp());
+            };
+        } catch (IllegalArgumentException e) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("batch op error username: {} op: {} key: {}", username, op.getOp(), op.getKey(), e);
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    private static GetContentParam toGetParam(BatchOp op) {
+        GetContentParam getContentParam = new GetContentParam();
+        getContentParam.setKey(op.getKey());
+        return getContentParam;
+    }
+
+    private static PutContentParam toPutParam(BatchOp op) {
+        PutContentParam putContentParam = new PutContentParam();
+        putContentParam.setKey(op.getKey());
+        putContentParam.setContent(StrUtil.nullToEmpty(op.getContent()));
+        putContentParam.setEtag(op.getEtag());
+        return putContentParam;
+    }
+}
@@ -0,0 +1,219 @@
+package com.passwordxl.service;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.ContentMeta;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内容变化通知
+ * <p>
+ * 每个客户端保持一个 SSE 连接，内容写入或删除提交后推送 key 与新的内容标记。
+ * 连接基于异步 Servlet，空闲时不占用线程；推送在虚拟线程中进行，每个连接的事件按发布顺序依次发送。
+ * 发布在 key 锁内完成，同一个 key 的事件顺序与提交顺序一致。
+ */
+@Slf4j
+@Component
+public class ChangeNotifier {
+
+    // 单个连接积压的事件上限，超出说明客户端过慢，直接断开由客户端重连
+    private static final int MAX_PENDING = 256;
+
+    private final long timeoutMillis;
+    private final int maxPerUser;
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "change-notifier-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChangeNotifier(@Value("${password-xl.notify.timeout:30m}") Duration timeout,
+                          @Value("${password-xl.notify.heartbeat:30s}") Duration heartbeat,
+                          @Value("${password-xl.notify.max-per-user:16}") int maxPerUser) {
+        this.timeoutMillis = timeout.toMillis();
+        this.maxPerUser = maxPerUser;
+        long heartbeatMillis = heartbeat.toMillis();
+        // 定期发送注释行，及时发现已断开的连接，也避免被代理当作空闲连接关闭
+        scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 订阅用户的内容变化
+     *
+     * @param username 用户名
+     * @param tokenId  连接使用的token编号，token吊销时关闭对应连接
+     * @return SSE连接
+     */
+    public SseEmitter subscribe(String username, String tokenId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(username, tokenId, emitter);
+        Set<Subscriber> userSubscribers = subscribers.get(username);
+        if (userSubscribers != null && userSubscribers.size() >= maxPerUser) {
+            // 超出上限时关闭其中一个旧连接
+            log.info("too many subscribers username: {} count: {}", username, userSubscribers.size());
+            userSubscribers.stream().findAny().ifPresent(old -> old.emitter.complete());
+        }
+        // 在 compute 内加入，避免加入到刚被移除的空集合中
+        subscribers.compute(username, (k, v) -> {
+            Set<Subscriber> set = v == null ? ConcurrentHashMap.newKeySet() : v;
+            set.add(subscriber);
+            return set;
+        });
+        subscriberCount.incrementAndGet();
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        log.info("subscribe username: {} subscribers: {}", username, subscriberCount.get());
+        // 连接建立后立即发送一次，客户端据此确认连接可用
+        subscriber.send(SseEmitter.event().name("ready").data("{}"));
+        return emitter;
+    }
+
+    /**
+     * 发布内容变化
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param meta     新的元数据，内容被删除时为null
+     */
+    public void publish(String username, String key, ContentMeta meta) {
+        Set<Subscriber> userSubscribers = subscribers.get(username);
+        if (userSubscribers == null || userSubscribers.isEmpty()) {
+            return;
+        }
+        JSONObject data = new JSONObject();
+        data.put("key", key);
+        data.put("etag", meta == null ? null : meta.getEtag());
+        String json = data.toJSONString();
+        for (Subscriber subscriber : userSubscribers) {
+            subscriber.send(SseEmitter.event().name("change").data(json));
+        }
+    }
+
+    /**
+     * 关闭用户的所有连接
+     *
+     * @param username 用户名
+     */
+    public void closeUser(String username) {
+        Set<Subscriber> userSubscribers = subscribers.get(username);
+        if (userSubscribers != null) {
+            userSubscribers.forEach(subscriber -> subscriber.emitter.complete());
+        }
+    }
+
+    /**
+     * 关闭使用指定token建立的连接
+     *
+     * @param username 用户名
+     * @param tokenId  token编号
+     */
+    public void closeToken(String username, String tokenId) {
+        Set<Subscriber> userSubscribers = subscribers.get(username);
+        if (userSubscribers != null) {
+            userSubscribers.stream()
+                    .filter(subscriber -> subscriber.tokenId.equals(tokenId))
+                    .forEach(subscriber -> subscriber.emitter.complete());
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(subscriber -> subscriber.emitter.complete()));
+        executor.shutdown();
+    }
+
+    private void heartbeat() {
+        for (Set<Subscriber> userSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : userSubscribers) {
+                subscriber.send(SseEmitter.event().comment("ping"));
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        Set<Subscriber> userSubscribers = subscribers.get(subscriber.username);
+        if (userSubscribers != null && userSubscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+            subscribers.computeIfPresent(subscriber.username, (k, v) -> v.isEmpty() ? null : v);
+            log.info("unsubscribe username: {} subscribers: {}", subscriber.username, subscriberCount.get());
+        }
+    }
+
+    /**
+     * 单个SSE连接
+     * <p>
+     * 事件先进入队列，由最多一个虚拟线程按顺序发送，发布方不会被慢连接阻塞
+     */
+    private class Subscriber {
+        private final String username;
+        private final String tokenId;
+        private final SseEmitter emitter;
+        private final Queue<SseEmitter.SseEventBuilder> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscriber(String username, String tokenId, SseEmitter emitter) {
+            this.username = username;
+            this.tokenId = tokenId;
+            this.emitter = emitter;
+        }
+
+        void send(SseEmitter.SseEventBuilder event) {
+            if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                log.info("subscriber too slow username: {}", username);
+                emitter.complete();
+                return;
+            }
+            pending.add(event);
+            if (draining.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                SseEmitter.SseEventBuilder event;
+                while ((event = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    try {
+                        emitter.send(event);
+                    } catch (IOException | IllegalStateException e) {
+                        // 连接已断开或已关闭，清理后不再发送
+                        pending.clear();
+                        emitter.completeWithError(e);
+                        remove(this);
+                        return;
+                    }
+                }
+                draining.set(false);
+                // 释放发送权后可能有新事件入队，重新抢占继续发送
+            } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.passwordxl.service;
+
+import com.passwordxl.bean.ContentMeta;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 内容读缓存
+ * <p>
+ * 按 用户+key 缓存最近读取的内容，总大小受内存预算限制，超出时淘汰最久未访问的内容。
+ * 缓存项带有内容标记，只有与元数据索引中的标记一致时才视为命中。
+ * 内容被修改后，旧内容以 用户+key+标记 继续保留在同一预算内，用于计算增量。
+ */
+@Component
+public class ContentCache {
+
+    /**
+     * 缓存项
+     *
+     * @param etag    内容标记
+     * @param version 内容版本
+     * @param content 内容
+     * @param size    内容字节数
+     */
+    public record Entry(String etag, long version, String content, long size) {
+    }
+
+    private final long maxBytes;
+    // 按访问顺序排列，头部为最久未访问
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ContentCache(@Value("${password-xl.cache.max-size:64MB}") DataSize maxSize) {
+        this.maxBytes = maxSize.toBytes();
+    }
+
+    /**
+     * 获取与元数据匹配的缓存内容
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param meta     当前元数据
+     * @return 内容，未命中时返回null
+     */
+    public String get(String username, String key, ContentMeta meta) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(cacheKey(username, key));
+        } finally {
+            lock.unlock();
+        }
+        if (entry == null || entry.version() != meta.getVersion() || !entry.etag().equals(meta.getEtag())) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.content();
+    }
+
+    /**
+     * 放入缓存，单个内容超过预算的1/8时不缓存
+     *
+     * @param meta    读取内容时的元数据
+     * @param content 内容
+     */
+    public void put(String username, String key, ContentMeta meta, String content) {
+        long size = meta.getSize();
+        if (size > maxBytes / 8) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry old = entries.put(cacheKey(username, key), new Entry(meta.getEtag(), meta.getVersion(), content, size));
+            if (old != null) {
+                currentBytes -= old.size();
+            }
+            currentBytes += size;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                currentBytes -= iterator.next().getValue().size();
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取指定标记的历史内容
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param etag     内容标记
+     * @return 内容，未缓存时返回null
+     */
+    public String getVersion(String username, String key, String etag) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(versionKey(username, key, etag));
+            return entry == null ? null : entry.content();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 内容被修改或删除时移除缓存，旧内容转为历史内容保留
+     */
+    public void invalidate(String username, String key) {
+        lock.lock();
+        try {
+            Entry old = entries.remove(cacheKey(username, key));
+            if (old != null) {
+                Entry replaced = entries.put(versionKey(username, key, old.etag()), old);
+                if (replaced != null) {
+                    currentBytes -= replaced.size();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String cacheKey(String username, String key) {
+        return username + "/" + key;
+    }
+
+    private static String versionKey(String username, String key, String etag) {
+        // 文件名不能包含\0，不会与内容key冲突
+        return username + "/" + key + "\0" + etag;
+    }
+}
@@ -0,0 +1,183 @@
+package com.passwordxl.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 内容存储编码
+ * <p>
+ * 压缩后的文件以 {@code 00 'P' 'X' 'C' 编码} 五个字节开头，其后为压缩数据；
+ * 没有该头部的文件按原始UTF-8内容读取，因此旧文件无需迁移。文本内容不会以0字节开头。
+ * 魔数之后不是已知编码时同样按原始内容读取，不会使该key无法读取。
+ */
+@Component
+public class ContentCodec {
+
+    /**
+     * 编码方式
+     */
+    public enum Codec {
+        // 不压缩，不写头部
+        NONE(0),
+        // zlib格式deflate
+        DEFLATE(1),
+        // gzip，读取时可直接作为 Content-Encoding: gzip 响应
+        GZIP(2);
+
+        private final int id;
+
+        Codec(int id) {
+            this.id = id;
+        }
+
+        private static Codec of(int id) {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final byte[] MAGIC = {0, 'P', 'X', 'C'};
+    // 头部长度：魔数 + 编码
+    public static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    private final Codec codec;
+
+    public ContentCodec(@Value("${password-xl.storage.compression:none}") Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 按配置的编码写出内容，不关闭输出流
+     *
+     * @param source 内容
+     * @param out    输出流
+     */
+    public void write(ContentSource source, OutputStream out) throws IOException {
+        switch (codec) {
+            case NONE -> source.writeTo(out);
+            case DEFLATE -> {
+                writeHeader(out);
+                // 不关闭输出流，需自行释放Deflater
+                Deflater deflater = new Deflater();
+                try {
+                    DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 8192);
+                    source.writeTo(deflaterOut);
+                    deflaterOut.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+            case GZIP -> {
+                writeHeader(out);
+                GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+                source.writeTo(gzip);
+                gzip.finish();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * 读取数据流的编码方式，有编码头部时跳过头部，否则按未压缩内容处理，流位置不变
+     *
+     * @param in 编码后的数据流，需支持 mark/reset
+     * @return 编码方式
+     */
+    public Codec readCodec(InputStream in) throws IOException {
+        in.mark(HEADER_LENGTH);
+        Codec fileCodec = readHeader(in);
+        if (fileCodec == null || fileCodec == Codec.NONE) {
+            in.reset();
+            return Codec.NONE;
+        }
+        return fileCodec;
+    }
+
+    /**
+     * 解码头部之后的压缩数据
+     *
+     * @param fileCodec  文件的编码方式
+     * @param compressed 头部之后的数据
+     * @return 原始内容流
+     */
+    public InputStream decode(Codec fileCodec, InputStream compressed) throws IOException {
+        return switch (fileCodec) {
+            case NONE -> compressed;
+            case DEFLATE -> new InflaterInputStream(compressed);
+            case GZIP -> new GZIPInputStream(compressed, 8192);
+        };
+    }
+
+    /**
+     * 解码已编码的数据流
+     *
+     * @param in 编码后的数据流
+     * @return 原始内容流
+     */
+    public InputStream open(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        try {
+            return decode(readCodec(in), in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 解码内容
+     *
+     * @param stored 编码后的数据
+     * @return 内容
+     */
+    public String readString(byte[] stored) throws IOException {
+        try (InputStream in = open(new ByteArrayInputStream(stored))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    private void writeHeader(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(codec.id);
+    }
+
+    /**
+     * 读取编码头部
+     *
+     * @return 编码方式，没有头部或编码未知时返回null
+     */
+    private static Codec readHeader(InputStream in) throws IOException {
+        byte[] header = in.readNBytes(HEADER_LENGTH);
+        if (header.length < HEADER_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return null;
+            }
+        }
+        return Codec.of(header[MAGIC.length]);
+    }
+}
@@ -0,0 +1,104 @@
+package com.passwordxl.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 内容锁管理
+ * <p>
+ * 修改某个key时持有该key的独占锁与所属用户的共享锁；清理用户目录时持有用户独占锁。
+ * 锁按需创建、无人持有时立即移除，不同用户、不同key之间互不竞争。
+ * 读取通常不加锁，由 {@link ContentMetaIndex#open} 校验写入序号确认数据与元数据属于同一次提交，
+ * 连续遇到写入时才持有key锁读取。
+ */
+@Component
+public class ContentLockManager {
+
+    /**
+     * 已持有的锁，关闭时释放
+     */
+    public interface Handle extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // 带引用计数的锁，引用计数只在 ConcurrentHashMap 的 compute 中修改
+    private static final class RefLock<L> {
+        private final L lock;
+        private int refs;
+
+        private RefLock(L lock) {
+            this.lock = lock;
+        }
+    }
+
+    // 用户名 -> 用户锁
+    private final ConcurrentHashMap<String, RefLock<ReentrantReadWriteLock>> userLocks = new ConcurrentHashMap<>();
+    // 用户名/key -> key锁
+    private final ConcurrentHashMap<String, RefLock<ReentrantLock>> keyLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 锁定用户的某个key，用于写入与删除
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 锁句柄
+     */
+    public Handle lockKey(String username, String key) {
+        String lockKey = username + "/" + key;
+        ReentrantReadWriteLock userLock = acquire(userLocks, username, ReentrantReadWriteLock::new);
+        userLock.readLock().lock();
+        ReentrantLock keyLock = acquire(keyLocks, lockKey, ReentrantLock::new);
+        keyLock.lock();
+        return () -> {
+            keyLock.unlock();
+            release(keyLocks, lockKey);
+            userLock.readLock().unlock();
+            release(userLocks, username);
+        };
+    }
+
+    /**
+     * 尝试独占锁定用户，用于清理用户目录。有其他写入进行中时立即返回null
+     *
+     * @param username 用户名
+     * @return 锁句柄，未获取到时返回null
+     */
+    public Handle tryLockUser(String username) {
+        ReentrantReadWriteLock userLock = acquire(userLocks, username, ReentrantReadWriteLock::new);
+        if (!userLock.writeLock().tryLock()) {
+            release(userLocks, username);
+            return null;
+        }
+        return () -> {
+            userLock.writeLock().unlock();
+            release(userLocks, username);
+        };
+    }
+
+    /**
+     * 当前持有中的key锁数量
+     */
+    public int activeKeyLocks() {
+        return keyLocks.size();
+    }
+
+    private static <L> L acquire(ConcurrentHashMap<String, RefLock<L>> locks, String name, Supplier<L> factory) {
+        RefLock<L> refLock = locks.compute(name, (k, v) -> {
+            if (v == null) {
+                v = new RefLock<>(factory.get());
+            }
+            v.refs++;
+            return v;
+        });
+        return refLock.lock;
+    }
+
+    private static <L> void release(ConcurrentHashMap<String, RefLock<L>> locks, String name) {
+        locks.computeIfPresent(name, (k, v) -> --v.refs == 0 ? null : v);
+    }
+}
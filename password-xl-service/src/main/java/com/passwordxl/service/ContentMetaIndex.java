@@ -0,0 +1,253 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.HexUtil;
+import com.passwordxl.bean.ContentMeta;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内容元数据索引
+ * <p>
+ * 按用户维护每个key的内容哈希、大小与版本。首次访问某用户时读取其全部内容构建，
+ * 之后由写入与删除同步更新，查询文件标记不再访问磁盘。
+ * <p>
+ * 写入在替换存储数据前后分别调用 {@link #beginWrite} 与 {@link #endWrite}，不加锁的读取通过
+ * {@link #tryOptimisticRead} 与 {@link #validate} 确认读到的数据与元数据属于同一次提交：
+ * 存储已替换、元数据尚未更新的窗口内读取会校验失败。序号按key哈希分段，不同key偶尔共用分段只会导致多一次重试。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContentMetaIndex {
+
+    private final ContentCodec contentCodec;
+    private final StorageEngine storageEngine;
+    private final ContentLockManager contentLockManager;
+
+    private static final int STRIPES = 1024;
+    // 不加锁读取的尝试次数，之后在key锁内读取
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+    // 用户名 -> (key -> 元数据)
+    private final Map<String, Map<String, ContentMeta>> index = new ConcurrentHashMap<>();
+    // 每个分段两个计数：[2i] 开始的写入数，[2i+1] 完成的写入数，相等时分段内没有进行中的写入
+    private final AtomicLongArray sequences = new AtomicLongArray(STRIPES * 2);
+
+    /**
+     * 获取元数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 元数据，不存在时返回null
+     */
+    public ContentMeta get(String username, String key) {
+        return userIndex(username).get(key);
+    }
+
+    /**
+     * 打开的数据流与对应的元数据，关闭时关闭数据流
+     *
+     * @param meta   元数据
+     * @param stored 存储引擎中的数据
+     */
+    public record Snapshot(ContentMeta meta, InputStream stored) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            stored.close();
+        }
+    }
+
+    /**
+     * 打开最后一次提交的数据，数据与元数据属于同一次提交
+     * <p>
+     * 先不加锁读取，连续遇到写入时在key锁内打开；已打开的数据流不受之后写入的影响，读取数据无需持有锁。
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 数据与元数据，不存在时返回null
+     */
+    public Snapshot open(String username, String key) throws IOException {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = tryOptimisticRead(username, key);
+            if (stamp < 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            ContentMeta meta = get(username, key);
+            InputStream stored = meta == null ? null : storageEngine.stream(username, key);
+            if (validate(username, key, stamp)) {
+                return meta == null || stored == null ? null : new Snapshot(meta, stored);
+            }
+            if (stored != null) {
+                stored.close();
+            }
+        }
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, key)) {
+            ContentMeta meta = get(username, key);
+            InputStream stored = meta == null ? null : storageEngine.stream(username, key);
+            return stored == null ? null : new Snapshot(meta, stored);
+        }
+    }
+
+    /**
+     * 获取用户的全部内容key
+     *
+     * @param username 用户名
+     * @return key列表
+     */
+    public List<String> keys(String username) {
+        return new ArrayList<>(userIndex(username).keySet());
+    }
+
+    /**
+     * 写入成功后更新元数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param etag     内容标记
+     * @param size       内容字节数
+     * @param storedSize 存储字节数
+     * @return 新的元数据
+     */
+    public ContentMeta update(String username, String key, String etag, long size, long storedSize) {
+        Map<String, ContentMeta> userIndex = userIndex(username);
+        ContentMeta old = userIndex.get(key);
+        long version = old == null ? 1 : old.getVersion() + 1;
+        ContentMeta meta = new ContentMeta(etag, size, storedSize, version, System.currentTimeMillis());
+        userIndex.put(key, meta);
+        return meta;
+    }
+
+    /**
+     * 删除成功后移除元数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     */
+    public void remove(String username, String key) {
+        userIndex(username).remove(key);
+    }
+
+    /**
+     * 开始修改内容，在替换或删除存储数据之前调用，调用方需持有key锁并在finally中调用 {@link #endWrite}
+     *
+     * @param username 用户名
+     * @param key      内容key
+     */
+    public void beginWrite(String username, String key) {
+        sequences.incrementAndGet(stripe(username, key));
+    }
+
+    /**
+     * 结束修改内容，在更新或移除元数据之后调用
+     *
+     * @param username 用户名
+     * @param key      内容key
+     */
+    public void endWrite(String username, String key) {
+        sequences.incrementAndGet(stripe(username, key) + 1);
+    }
+
+    /**
+     * 开始不加锁的读取，之后依次读取元数据与存储数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 读取标记，有进行中的写入时返回-1
+     */
+    public long tryOptimisticRead(String username, String key) {
+        int stripe = stripe(username, key);
+        long finished = sequences.get(stripe + 1);
+        long started = sequences.get(stripe);
+        return started == finished ? started : -1;
+    }
+
+    /**
+     * 确认读取期间没有发生写入，读到的数据与元数据一致
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param stamp    {@link #tryOptimisticRead} 返回的标记
+     * @return 是否一致
+     */
+    public boolean validate(String username, String key, long stamp) {
+        return stamp >= 0 && sequences.get(stripe(username, key)) == stamp;
+    }
+
+    private static int stripe(String username, String key) {
+        int hash = (username.hashCode() * 31 + key.hashCode()) * 0x9E3779B9;
+        return (hash >>> 22) * 2;
+    }
+
+    private Map<String, ContentMeta> userIndex(String username) {
+        return index.computeIfAbsent(username, this::load);
+    }
+
+    /**
+     * 读取用户的全部内容构建索引
+     */
+    private Map<String, ContentMeta> load(String username) {
+        Map<String, ContentMeta> userIndex = new ConcurrentHashMap<>();
+        try {
+            for (String key : storageEngine.list(username)) {
+                ContentMeta meta = scan(username, key);
+                if (meta != null) {
+                    userIndex.put(key, meta);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("load meta index username: {} count: {}", username, userIndex.size());
+        return userIndex;
+    }
+
+    /**
+     * 读取内容计算元数据，压缩存储的内容按解码后的内容计算
+     */
+    private ContentMeta scan(String username, String key) throws IOException {
+        StorageEngine.Stat stat = storageEngine.stat(username, key);
+        InputStream stored = stat == null ? null : storageEngine.stream(username, key);
+        if (stored == null) {
+            // 扫描期间被删除
+            return null;
+        }
+        try (InputStream in = contentCodec.open(stored);
+             DigestInputStream digestIn = new DigestInputStream(in, MessageDigest.getInstance("SHA-256"))) {
+            long size = digestIn.transferTo(OutputStream.nullOutputStream());
+            String etag = HexUtil.encodeHexStr(digestIn.getMessageDigest().digest());
+            return new ContentMeta(etag, size, stat.storedSize(), 1, stat.lastModified());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 是否为内容key（图片目录与以.开头的路径保留给服务端使用）
+     */
+    public static boolean isContentKey(String key) {
+        if (key.startsWith("images/")) {
+            return false;
+        }
+        for (String segment : key.split("/")) {
+            if (segment.startsWith(".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
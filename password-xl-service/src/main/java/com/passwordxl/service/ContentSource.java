@@ -0,0 +1,117 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 待写入的内容
+ * <p>
+ * 写入的同时计算内容标记（sha256）与字节数，流式内容在 {@link #writeTo} 完成后才能获取标记。
+ */
+public interface ContentSource {
+
+    /**
+     * 写出全部内容
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * 内容标记
+     */
+    String getEtag();
+
+    /**
+     * 内容字节数
+     */
+    long getSize();
+
+    static ContentSource of(byte[] content) {
+        return new BytesSource(content);
+    }
+
+    static ContentSource of(InputStream in) {
+        return new StreamSource(in);
+    }
+
+    /**
+     * 内存中的内容
+     */
+    final class BytesSource implements ContentSource {
+        private final byte[] content;
+        private String etag;
+
+        private BytesSource(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(content);
+        }
+
+        @Override
+        public String getEtag() {
+            if (etag == null) {
+                etag = DigestUtil.sha256Hex(content);
+            }
+            return etag;
+        }
+
+        @Override
+        public long getSize() {
+            return content.length;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * 流式内容，只能写出一次
+     */
+    final class StreamSource implements ContentSource {
+        private final InputStream in;
+        private String etag;
+        private long size = -1;
+
+        private StreamSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (size >= 0) {
+                throw new IllegalStateException("content already written");
+            }
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            size = new DigestInputStream(in, digest).transferTo(out);
+            etag = HexUtil.encodeHexStr(digest.digest());
+        }
+
+        @Override
+        public String getEtag() {
+            if (etag == null) {
+                throw new IllegalStateException("content not written");
+            }
+            return etag;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -3,10 +3,9 @@ package com.passwordxl.service;
 import com.passwordxl.bean.User;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class DataService {
     public static String workPath = "/password-xl-service";
-    // 用户列表 username -> user
-    public final static Map<String, User> users = new ConcurrentHashMap<>();
+    // 用户列表 username -> user，不可变，配置重新加载时整体替换
+    public static volatile Map<String, User> users = Map.of();
 }
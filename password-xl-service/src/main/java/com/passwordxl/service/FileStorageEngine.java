@@ -0,0 +1,208 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.io.FileUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 文件存储引擎
+ * <p>
+ * 每个key保存为用户数据目录下的一个文件：{@code password-xl-data/<用户名>/<key>}，
+ * 写入通过 {@link AtomicFileWriter} 原子替换。与之前版本的目录结构一致，已有数据无需迁移。
+ */
+@Slf4j
+public class FileStorageEngine implements StorageEngine {
+
+    private final AtomicFileWriter atomicFileWriter;
+
+    public FileStorageEngine(AtomicFileWriter atomicFileWriter) {
+        this.atomicFileWriter = atomicFileWriter;
+    }
+
+    /**
+     * 写入完成的临时文件
+     */
+    private static final class FilePending implements Pending {
+        private final Path temp;
+        private final Path target;
+        private final long storedSize;
+        private boolean committed;
+
+        private FilePending(Path temp, Path target, long storedSize) {
+            this.temp = temp;
+            this.target = target;
+            this.storedSize = storedSize;
+        }
+
+        @Override
+        public long storedSize() {
+            return storedSize;
+        }
+
+        @Override
+        public void close() {
+            // 提交后临时文件已被重命名，只清理未提交的
+            if (!committed) {
+                FileUtil.del(temp);
+            }
+        }
+    }
+
+    @Override
+    public byte[] get(String username, String key) throws IOException {
+        try {
+            return Files.readAllBytes(file(username, key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream stream(String username, String key) throws IOException {
+        try {
+            // 原子替换不影响已打开的文件
+            return new BufferedInputStream(Files.newInputStream(file(username, key)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Pending prepare(String username, String key, StoreWriter writer) throws IOException {
+        Path target = file(username, key);
+        long[] storedSize = new long[1];
+        Path temp = atomicFileWriter.writeTemp(target.getParent(), "." + target.getFileName(), channel -> {
+            writer.writeTo(Channels.newOutputStream(channel));
+            storedSize[0] = channel.position();
+        });
+        return new FilePending(temp, target, storedSize[0]);
+    }
+
+    @Override
+    public void commit(Pending pending) throws IOException {
+        FilePending filePending = (FilePending) pending;
+        // 替换失败时临时文件已被删除
+        filePending.committed = true;
+        atomicFileWriter.commit(filePending.temp, filePending.target);
+    }
+
+    @Override
+    public boolean delete(String username, String key) throws IOException {
+        return atomicFileWriter.delete(file(username, key));
+    }
+
+    @Override
+    public Stat stat(String username, String key) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file(username, key), BasicFileAttributes.class);
+            return new Stat(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 扫描用户数据目录，跳过图片目录与隐藏文件，并清理写入中断遗留的临时文件
+     * <p>
+     * 只清理内容目录中的临时文件：图片目录与以.开头的服务端目录中的临时文件可能属于进行中的上传或恢复，
+     * 由各自的写入方负责清理。内容的临时文件在首次访问用户、构建索引之后才会产生，扫描时不会有进行中的写入。
+     */
+    @Override
+    public List<String> list(String username) throws IOException {
+        List<String> keys = new ArrayList<>();
+        Path base = userDir(username);
+        if (!Files.isDirectory(base)) {
+            return keys;
+        }
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                String key = base.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!isContentDir(key)) {
+                    return;
+                }
+                if (isTempFile(path)) {
+                    // 写入过程中进程退出遗留的临时文件
+                    log.info("delete stale temp file: {}", path);
+                    FileUtil.del(path);
+                } else if (ContentMetaIndex.isContentKey(key)) {
+                    keys.add(key);
+                }
+            });
+        }
+        return keys;
+    }
+
+    /**
+     * 文件是否位于内容目录中（不在图片目录与以.开头的目录下）
+     */
+    private static boolean isContentDir(String key) {
+        if (key.startsWith("images/")) {
+            return false;
+        }
+        int end = key.lastIndexOf('/');
+        return end < 0 || ContentMetaIndex.isContentKey(key.substring(0, end));
+    }
+
+    @Override
+    public List<String> users() throws IOException {
+        Path root = Paths.get(DataService.workPath, "password-xl-data");
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(root)) {
+            return paths.filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> !name.startsWith("."))
+                    .toList();
+        }
+    }
+
+    /**
+     * 用户目录为空时删除
+     */
+    @Override
+    public void cleanup(String username) {
+        File fileDir = userDir(username).toFile();
+        File[] files = fileDir.listFiles();
+        if (files != null && files.length == 0) {
+            boolean deleteResult = fileDir.delete();
+            if (!deleteResult) {
+                log.warn("delete file succeed, but delete folder fail: {}", fileDir.getName());
+            }
+        }
+    }
+
+    private static Path userDir(String username) {
+        return Paths.get(DataService.workPath, "password-xl-data", username);
+    }
+
+    /**
+     * key已由调用方校验，这里再确认路径不会越出用户目录
+     */
+    private static Path file(String username, String key) {
+        Path base = userDir(username);
+        Path target = base.resolve(key).normalize();
+        if (!target.startsWith(base) || target.equals(base)) {
+            throw new IllegalArgumentException("非法路径");
+        }
+        return target;
+    }
+
+    private static boolean isTempFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(".tmp");
+    }
+}
@@ -0,0 +1,406 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.HexUtil;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.TypeReference;
+import com.passwordxl.bean.ImageRef;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 按内容寻址的图片存储
+ * <p>
+ * 图片以内容sha256命名存放在 images/blob 目录下，相同内容只保存一份；
+ * 引用信息记录每张图片由哪些前缀上传。清理时扫描用户的全部内容及其历史版本，删除不再被任何内容引用的图片。
+ * 旧版本按随机名保存在 images/&lt;prefix&gt; 下的图片保持不变。
+ * 新增与删除图片记入复制变更日志，从节点按图片路径同步文件。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ImageStore {
+
+    // 图片目录名，满足前缀的命名规则，因此对象key与旧版本格式一致
+    public static final String BLOB_DIR = "blob";
+    private static final String REFS_FILE = ".refs.json";
+    // 从备份恢复的图片记录的前缀
+    private static final String RESTORE_PREFIX = "restore";
+    // 未被引用的图片至少保留的时间，避免删除刚上传、尚未保存到笔记中的图片
+    private static final long GC_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}\\.[A-Za-z0-9]+");
+    private static final Pattern BLOB_REF = Pattern.compile("images/" + BLOB_DIR + "/([0-9a-f]{64}\\.[A-Za-z0-9]+)");
+
+    private final AtomicFileWriter atomicFileWriter;
+    private final ContentLockManager contentLockManager;
+    private final ContentMetaIndex contentMetaIndex;
+    private final ContentCodec contentCodec;
+    private final StorageEngine storageEngine;
+    private final VersionLog versionLog;
+    private final ReplicationLog replicationLog;
+
+    // 用户名 -> (图片文件名 -> 引用信息)
+    private final Map<String, Map<String, ImageRef>> refs = new ConcurrentHashMap<>();
+
+    /**
+     * 保存图片，上传流在写入临时文件的同时计算哈希，内容已存在时只记录引用
+     *
+     * @param username 用户名
+     * @param prefix   前缀
+     * @param extName  扩展名
+     * @param in       图片内容
+     * @return 对象key
+     */
+    public String store(String username, String prefix, String extName, InputStream in) throws IOException {
+        Path blobDir = blobDir(username);
+        MessageDigest digest = sha256();
+        Path temp = atomicFileWriter.writeTemp(blobDir, ".upload", channel ->
+                new DigestInputStream(in, digest).transferTo(Channels.newOutputStream(channel)));
+        String blobName = HexUtil.encodeHexStr(digest.digest()) + "." + extName.toLowerCase();
+        Path target = blobDir.resolve(blobName);
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, "images/" + BLOB_DIR + "/" + blobName)) {
+            if (Files.exists(target)) {
+                Files.delete(temp);
+                log.info("upload image deduplicated username: {} blob: {}", username, blobName);
+            } else {
+                try (ReplicationLog.Change ignoredChange = replicationLog.record(ReplicationLog.Kind.IMAGE, username, "images/" + BLOB_DIR + "/" + blobName)) {
+                    atomicFileWriter.commit(temp, target);
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(temp);
+                    throw e;
+                }
+            }
+            addRef(username, blobName, prefix);
+        }
+        return "/" + username + "/images/" + BLOB_DIR + "/" + blobName;
+    }
+
+    /**
+     * 清理不再被任何内容引用的图片
+     *
+     * @param username 用户名
+     * @param dryRun   只统计不删除
+     * @return 清理结果
+     */
+    public JSONObject gc(String username, boolean dryRun) throws IOException {
+        Path blobDir = blobDir(username);
+        JSONObject result = new JSONObject();
+        List<String> deleted = new ArrayList<>();
+        long freedBytes = 0;
+        if (Files.isDirectory(blobDir)) {
+            Set<String> referenced = referencedBlobs(username);
+            Map<String, ImageRef> userRefs = userRefs(username);
+            long now = System.currentTimeMillis();
+            List<Path> blobs;
+            try (Stream<Path> paths = Files.list(blobDir)) {
+                blobs = paths.filter(path -> !path.getFileName().toString().startsWith(".")).toList();
+            }
+            for (Path blob : blobs) {
+                String blobName = blob.getFileName().toString();
+                if (referenced.contains(blobName)) {
+                    continue;
+                }
+                try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, "images/" + BLOB_DIR + "/" + blobName)) {
+                    ImageRef ref = userRefs.get(blobName);
+                    long uploadTime = ref != null ? ref.getUploadTime() : Files.getLastModifiedTime(blob).toMillis();
+                    if (now - uploadTime < GC_GRACE_MILLIS) {
+                        continue;
+                    }
+                    long size = Files.size(blob);
+                    if (!dryRun) {
+                        try (ReplicationLog.Change ignoredChange = replicationLog.record(ReplicationLog.Kind.IMAGE, username, "images/" + BLOB_DIR + "/" + blobName)) {
+                            atomicFileWriter.delete(blob);
+                        }
+                        removeRef(username, blobName);
+                    }
+                    deleted.add(blobName);
+                    freedBytes += size;
+                }
+            }
+            result.put("scanned", blobs.size());
+            result.put("referenced", referenced.size());
+        }
+        log.info("gc images username: {} dryRun: {} deleted: {} freed: {}", username, dryRun, deleted.size(), freedBytes);
+        result.put("deleted", deleted);
+        result.put("freedBytes", freedBytes);
+        return result;
+    }
+
+    /**
+     * 读取图片文件
+     *
+     * @param username 用户名
+     * @param imageKey 用户目录下的图片路径，例如 images/blob/xxx.png
+     * @return 图片数据，不存在时返回null
+     */
+    public byte[] read(String username, String imageKey) throws IOException {
+        try {
+            return Files.readAllBytes(imageFile(username, imageKey));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 图片文件是否存在
+     *
+     * @param username 用户名
+     * @param imageKey 用户目录下的图片路径
+     */
+    public boolean exists(String username, String imageKey) {
+        return Files.isRegularFile(imageFile(username, imageKey));
+    }
+
+    /**
+     * 图片文件路径
+     *
+     * @param username 用户名
+     * @param imageKey 用户目录下的图片路径
+     * @return 文件路径，文件不一定存在
+     */
+    public Path path(String username, String imageKey) {
+        return imageFile(username, imageKey);
+    }
+
+    /**
+     * 恢复备份中的图片，图片文件写入后不再变化，已存在时跳过
+     * <p>
+     * blob 目录下的图片写入临时文件的同时计算哈希，与文件名不一致时拒绝，避免之后相同哈希的上传引用到错误的内容
+     *
+     * @param username 用户名
+     * @param imageKey 用户目录下的图片路径
+     * @param in       图片内容
+     * @return 是否写入
+     * @throws IllegalArgumentException blob 图片的文件名不是内容哈希或与内容不一致
+     */
+    public boolean restore(String username, String imageKey, InputStream in) throws IOException {
+        boolean blob = imageKey.startsWith("images/" + BLOB_DIR + "/");
+        String blobName = imageKey.substring(imageKey.lastIndexOf('/') + 1);
+        if (blob && !BLOB_NAME.matcher(blobName).matches()) {
+            throw new IllegalArgumentException("图片文件名不是内容哈希：" + imageKey);
+        }
+        Path target = imageFile(username, imageKey);
+        if (Files.exists(target)) {
+            return false;
+        }
+        MessageDigest digest = sha256();
+        Path temp = atomicFileWriter.writeTemp(target.getParent(), ".restore", channel ->
+                new DigestInputStream(in, digest).transferTo(Channels.newOutputStream(channel)));
+        if (blob && !blobName.startsWith(HexUtil.encodeHexStr(digest.digest()) + ".")) {
+            Files.delete(temp);
+            throw new IllegalArgumentException("图片内容与文件名中的哈希不一致：" + imageKey);
+        }
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, imageKey)) {
+            if (Files.exists(target)) {
+                Files.delete(temp);
+                return false;
+            }
+            try (ReplicationLog.Change ignoredChange = replicationLog.record(ReplicationLog.Kind.IMAGE, username, imageKey)) {
+                atomicFileWriter.commit(temp, target);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        }
+        if (blob) {
+            addRef(username, blobName, RESTORE_PREFIX);
+        }
+        return true;
+    }
+
+    /**
+     * 保存主节点同步的图片，从节点使用
+     *
+     * @param username 用户名
+     * @param imageKey 用户目录下的图片路径
+     * @param data     图片数据
+     */
+    public void replicate(String username, String imageKey, byte[] data) throws IOException {
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, imageKey)) {
+            atomicFileWriter.write(imageFile(username, imageKey), data);
+        }
+    }
+
+    /**
+     * 删除主节点已删除的图片，从节点使用
+     *
+     * @param username 用户名
+     * @param imageKey 用户目录下的图片路径
+     */
+    public void deleteReplica(String username, String imageKey) throws IOException {
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, imageKey)) {
+            atomicFileWriter.delete(imageFile(username, imageKey));
+        }
+        if (imageKey.startsWith("images/" + BLOB_DIR + "/")) {
+            removeRef(username, imageKey.substring(imageKey.lastIndexOf('/') + 1));
+        }
+    }
+
+    /**
+     * 用户的全部图片路径，包括旧版本按前缀保存的图片，跳过引用信息与临时文件
+     *
+     * @param username 用户名
+     * @return 用户目录下的图片路径列表
+     */
+    public List<String> imageKeys(String username) throws IOException {
+        Path userDir = Paths.get(DataService.workPath, "password-xl-data", username);
+        Path imageDir = userDir.resolve("images");
+        if (!Files.isDirectory(imageDir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(imageDir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .map(path -> userDir.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .toList();
+        }
+    }
+
+    /**
+     * 有图片目录的用户
+     *
+     * @return 用户名列表
+     */
+    public List<String> users() throws IOException {
+        Path root = Paths.get(DataService.workPath, "password-xl-data");
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.list(root)) {
+            return paths.filter(path -> !path.getFileName().toString().startsWith("."))
+                    .filter(path -> Files.isDirectory(path.resolve("images")))
+                    .map(path -> path.getFileName().toString())
+                    .toList();
+        }
+    }
+
+    /**
+     * 扫描用户全部内容及历史版本，收集其中引用的图片文件名，恢复历史版本后图片仍然可用
+     */
+    private Set<String> referencedBlobs(String username) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (String key : contentMetaIndex.keys(username)) {
+            byte[] stored = storageEngine.get(username, key);
+            if (stored == null) {
+                // 扫描期间被删除的内容不再引用任何图片
+                continue;
+            }
+            collectRefs(contentCodec.readString(stored), referenced);
+        }
+        for (String key : versionLog.keys(username)) {
+            for (VersionLog.Entry entry : versionLog.list(username, key)) {
+                // 历史版本读取失败时直接失败，不清理任何图片
+                String content = versionLog.read(username, key, entry.version());
+                if (content != null) {
+                    collectRefs(content, referenced);
+                }
+            }
+        }
+        return referenced;
+    }
+
+    private static void collectRefs(String content, Set<String> referenced) {
+        Matcher matcher = BLOB_REF.matcher(content);
+        while (matcher.find()) {
+            referenced.add(matcher.group(1));
+        }
+    }
+
+    private void addRef(String username, String blobName, String prefix) throws IOException {
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, "images/" + REFS_FILE)) {
+            Map<String, ImageRef> userRefs = userRefs(username);
+            ImageRef ref = userRefs.computeIfAbsent(blobName, name -> new ImageRef());
+            ref.getPrefixes().add(prefix);
+            ref.setUploadTime(System.currentTimeMillis());
+            saveRefs(username, userRefs);
+        }
+    }
+
+    private void removeRef(String username, String blobName) throws IOException {
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, "images/" + REFS_FILE)) {
+            Map<String, ImageRef> userRefs = userRefs(username);
+            if (userRefs.remove(blobName) != null) {
+                saveRefs(username, userRefs);
+            }
+        }
+    }
+
+    private void saveRefs(String username, Map<String, ImageRef> userRefs) throws IOException {
+        byte[] json = JSON.toJSONBytes(userRefs);
+        atomicFileWriter.write(blobDir(username).resolve(REFS_FILE), json);
+    }
+
+    private Map<String, ImageRef> userRefs(String username) {
+        return refs.computeIfAbsent(username, name -> {
+            Map<String, ImageRef> userRefs = new ConcurrentHashMap<>();
+            Path refsFile = blobDir(name).resolve(REFS_FILE);
+            if (Files.exists(refsFile)) {
+                try {
+                    Map<String, ImageRef> saved = JSON.parseObject(Files.readString(refsFile, StandardCharsets.UTF_8), new TypeReference<Map<String, ImageRef>>() {
+                    });
+                    if (saved != null) {
+                        userRefs.putAll(saved);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return userRefs;
+        });
+    }
+
+    /**
+     * 图片路径必须位于用户的图片目录下，且不能是引用信息等以.开头的文件
+     */
+    private static Path imageFile(String username, String imageKey) {
+        Path userDir = Paths.get(DataService.workPath, "password-xl-data", username);
+        Path target = userDir.resolve(imageKey).normalize();
+        Path relative = userDir.relativize(target);
+        if (!target.startsWith(userDir) || relative.getNameCount() < 2 || !"images".equals(relative.getName(0).toString())) {
+            throw new IllegalArgumentException("非法路径");
+        }
+        for (Path name : relative) {
+            if (name.toString().startsWith(".")) {
+                throw new IllegalArgumentException("非法路径");
+            }
+        }
+        return target;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path blobDir(String username) {
+        return Paths.get(DataService.workPath, "password-xl-data", username, "images", BLOB_DIR);
+    }
+}
@@ -0,0 +1,599 @@
+package com.passwordxl.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 单文件分页存储引擎
+ * <p>
+ * 全部用户的内容保存在 {@code password-xl-data/.vaults.db} 一个文件中，文件按 4KB 分页并以 16MB 为单位内存映射。
+ * 每个条目占用一串页：首页记录用户名、key、代数、大小与校验和，后续页通过页头中的下一页编号串联。
+ * 读写只访问映射内存，不再为每个请求打开文件与查询文件属性，适合元数据操作较慢的网络文件系统与容器叠加文件系统。
+ * <p>
+ * 写入先把数据写入空闲页，首页标记为待提交；提交时改为有效，再把旧数据所在的页标记为空闲并放回空闲页列表。
+ * 同一个key同时存在多个有效首页时（提交过程中进程退出）以代数最大的为准，待提交与校验失败的页在打开时回收。
+ * 文件只增长不收缩，删除与覆盖释放的页由之后的写入复用。
+ * <p>
+ * 目录与空闲页列表在打开时扫描全部页重建，之后只在内存中维护。
+ * <p>
+ * 不支持流式读写：首页校验和覆盖全部数据且写在数据之前，写入时整条数据先在内存中组装；
+ * 页在提交后会被复用，读取时 {@link #stream} 先复制整条数据。单条数据的内存占用等于其大小，适合较小的密码库。
+ */
+@Slf4j
+public class PageFileStorageEngine implements StorageEngine {
+
+    public static final String FILE_NAME = ".vaults.db";
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGES_PER_CHUNK = 4096;
+    private static final long CHUNK_SIZE = (long) PAGE_SIZE * PAGES_PER_CHUNK;
+    private static final int MAGIC = 0x50584C50;
+    private static final int FORMAT_VERSION = 1;
+
+    // 页类型
+    private static final byte TYPE_FREE = 0;
+    private static final byte TYPE_HEAD = 1;
+    private static final byte TYPE_DATA = 2;
+    private static final byte TYPE_PENDING = 3;
+
+    // 页头：类型(1) 保留(3) 本页数据长度(4) 下一页(4) 保留(4)
+    private static final int PAGE_HEADER = 16;
+    private static final int USED_OFFSET = 4;
+    private static final int NEXT_OFFSET = 8;
+    // 首页头：页头 + 代数(8) 存储字节数(8) 修改时间(8) 校验和(4) 用户名长度(2) key长度(2)
+    private static final int GENERATION_OFFSET = PAGE_HEADER;
+    private static final int CRC_OFFSET = PAGE_HEADER + 24;
+    private static final int NAME_LENGTH_OFFSET = CRC_OFFSET + 4;
+    private static final int HEAD_HEADER = NAME_LENGTH_OFFSET + 4;
+    // 用户名与key的总长度上限，首页至少留一半空间存放数据
+    private static final int MAX_NAME_BYTES = PAGE_SIZE / 2 - HEAD_HEADER;
+    private static final int NO_PAGE = -1;
+
+    /**
+     * 条目在文件中的位置
+     *
+     * @param pages        按顺序占用的页，第一页为首页
+     * @param generation   代数，同一个key每次写入递增
+     * @param storedSize   存储字节数
+     * @param lastModified 最后修改时间
+     */
+    private record Entry(int[] pages, long generation, long storedSize, long lastModified) {
+    }
+
+    /**
+     * 已写入空闲页、首页为待提交状态的数据
+     */
+    private final class PagePending implements Pending {
+        private final String username;
+        private final String key;
+        private final Entry entry;
+        private boolean done;
+
+        private PagePending(String username, String key, Entry entry) {
+            this.username = username;
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @Override
+        public long storedSize() {
+            return entry.storedSize();
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                release(entry);
+            }
+        }
+    }
+
+    private final AtomicFileWriter.Durability durability;
+    // 保护目录、空闲页与映射列表；数据页在分配后、提交前只由写入方访问，写入数据时不持有锁
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 用户名 -> (key -> 条目)
+    private final Map<String, Map<String, Entry>> directory = new HashMap<>();
+    private final BitSet freePages = new BitSet();
+    private volatile MappedByteBuffer[] chunks;
+    private FileChannel channel;
+    private FileLock fileLock;
+    private int pageCount;
+
+    public PageFileStorageEngine(AtomicFileWriter.Durability durability) {
+        this.durability = durability;
+    }
+
+    @Override
+    public byte[] get(String username, String key) throws IOException {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            Entry entry = entry(username, key);
+            return entry == null ? null : read(entry, username, key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 返回读取时的数据副本，之后的写入与页复用不影响已打开的流。整条数据读入内存，不是流式读取
+     */
+    @Override
+    public InputStream stream(String username, String key) throws IOException {
+        byte[] data = get(username, key);
+        return data == null ? null : new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public Pending prepare(String username, String key, StoreWriter writer) throws IOException {
+        ensureOpen();
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        if (user.length + name.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("key过长");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        byte[] data = out.toByteArray();
+
+        int headCapacity = PAGE_SIZE - HEAD_HEADER - user.length - name.length;
+        int dataCapacity = PAGE_SIZE - PAGE_HEADER;
+        int pageTotal = 1 + Math.max(0, (data.length - headCapacity + dataCapacity - 1) / dataCapacity);
+
+        Entry entry;
+        lock.writeLock().lock();
+        try {
+            // 调用方持有key锁，提交前当前条目不会变化
+            Entry current = entry(username, key);
+            int[] pages = allocate(pageTotal);
+            entry = new Entry(pages, current == null ? 1 : current.generation() + 1, data.length, System.currentTimeMillis());
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            writePages(entry, user, name, data, headCapacity, dataCapacity);
+        } catch (RuntimeException e) {
+            release(entry);
+            throw e;
+        }
+        return new PagePending(username, key, entry);
+    }
+
+    @Override
+    public void commit(Pending pending) throws IOException {
+        PagePending pagePending = (PagePending) pending;
+        Entry entry = pagePending.entry;
+        int head = entry.pages()[0];
+        // 先标记新数据有效，再释放旧数据，进程在两步之间退出时按代数选择新数据
+        setType(head, TYPE_HEAD);
+        force(head);
+        Entry old;
+        lock.writeLock().lock();
+        try {
+            pagePending.done = true;
+            old = directory.computeIfAbsent(pagePending.username, k -> new HashMap<>()).put(pagePending.key, entry);
+            if (old != null) {
+                free(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (old != null) {
+            force(old.pages()[0]);
+        }
+    }
+
+    @Override
+    public boolean delete(String username, String key) throws IOException {
+        ensureOpen();
+        Entry old;
+        lock.writeLock().lock();
+        try {
+            Map<String, Entry> userEntries = directory.get(username);
+            old = userEntries == null ? null : userEntries.remove(key);
+            if (old == null) {
+                return false;
+            }
+            if (userEntries.isEmpty()) {
+                directory.remove(username);
+            }
+            free(old);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        force(old.pages()[0]);
+        return true;
+    }
+
+    @Override
+    public Stat stat(String username, String key) throws IOException {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            Entry entry = entry(username, key);
+            return entry == null ? null : new Stat(entry.storedSize(), entry.lastModified());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> list(String username) throws IOException {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            Map<String, Entry> userEntries = directory.get(username);
+            return userEntries == null ? new ArrayList<>() : new ArrayList<>(userEntries.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> users() throws IOException {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(directory.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (durability != AtomicFileWriter.Durability.NONE) {
+                for (MappedByteBuffer chunk : chunks) {
+                    chunk.force();
+                }
+            }
+            fileLock.release();
+            channel.close();
+            channel = null;
+            chunks = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 数据目录在应用启动后才确定，首次使用时打开文件
+     */
+    private void ensureOpen() throws IOException {
+        if (chunks == null) {
+            open();
+        }
+    }
+
+    private synchronized void open() throws IOException {
+        if (chunks != null) {
+            return;
+        }
+        Path path = Paths.get(DataService.workPath, "password-xl-data", FILE_NAME);
+        Files.createDirectories(path.getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileLock = channel.tryLock();
+        if (fileLock == null) {
+            channel.close();
+            channel = null;
+            throw new IllegalStateException("数据文件已被其他进程使用: " + path);
+        }
+        long size = channel.size();
+        int chunkCount = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SIZE, CHUNK_SIZE);
+        }
+        pageCount = chunkCount * PAGES_PER_CHUNK;
+        MappedByteBuffer first = mapped[0];
+        if (size == 0) {
+            first.putInt(0, MAGIC);
+            first.putInt(4, FORMAT_VERSION);
+            first.putInt(8, PAGE_SIZE);
+            first.force(0, PAGE_SIZE);
+        } else if (first.getInt(0) != MAGIC || first.getInt(4) != FORMAT_VERSION || first.getInt(8) != PAGE_SIZE) {
+            throw new IllegalStateException("数据文件格式错误: " + path);
+        }
+        lock.writeLock().lock();
+        try {
+            chunks = mapped;
+            scan();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("open page file: {} size: {} users: {} free pages: {}", path, size, directory.size(), freePages.cardinality());
+    }
+
+    /**
+     * 扫描全部首页重建目录与空闲页列表
+     */
+    private void scan() {
+        Map<String, Map<String, Entry>> latest = new HashMap<>();
+        List<Integer> discarded = new ArrayList<>();
+        for (int page = 1; page < pageCount; page++) {
+            byte type = chunk(page).get(offset(page));
+            if (type == TYPE_PENDING) {
+                discarded.add(page);
+            } else if (type == TYPE_HEAD) {
+                String[] names = new String[2];
+                Entry entry = readEntry(page, names);
+                if (entry == null) {
+                    discarded.add(page);
+                    continue;
+                }
+                Entry other = latest.computeIfAbsent(names[0], k -> new HashMap<>()).get(names[1]);
+                if (other == null || other.generation() < entry.generation()) {
+                    latest.get(names[0]).put(names[1], entry);
+                    if (other != null) {
+                        discarded.add(other.pages()[0]);
+                    }
+                } else {
+                    discarded.add(page);
+                }
+            }
+        }
+
+        BitSet used = new BitSet(pageCount);
+        used.set(0);
+        for (Map<String, Entry> userEntries : latest.values()) {
+            for (Entry entry : userEntries.values()) {
+                for (int page : entry.pages()) {
+                    used.set(page);
+                }
+            }
+        }
+        for (int page : discarded) {
+            if (!used.get(page)) {
+                setType(page, TYPE_FREE);
+            }
+        }
+        if (!discarded.isEmpty()) {
+            log.info("discard stale page chains: {}", discarded.size());
+        }
+        directory.clear();
+        directory.putAll(latest);
+        freePages.clear();
+        freePages.set(0, pageCount);
+        freePages.andNot(used);
+    }
+
+    /**
+     * 读取并校验首页开始的一串页，校验失败时返回null
+     *
+     * @param names 输出用户名与key
+     */
+    private Entry readEntry(int head, String[] names) {
+        MappedByteBuffer chunk = chunk(head);
+        int base = offset(head);
+        int userLength = chunk.getShort(base + NAME_LENGTH_OFFSET) & 0xFFFF;
+        int keyLength = chunk.getShort(base + NAME_LENGTH_OFFSET + 2) & 0xFFFF;
+        long storedSize = chunk.getLong(base + GENERATION_OFFSET + 8);
+        if (userLength + keyLength > MAX_NAME_BYTES || storedSize < 0 || storedSize > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] user = new byte[userLength];
+        byte[] name = new byte[keyLength];
+        chunk.get(base + HEAD_HEADER, user);
+        chunk.get(base + HEAD_HEADER + userLength, name);
+        names[0] = new String(user, StandardCharsets.UTF_8);
+        names[1] = new String(name, StandardCharsets.UTF_8);
+
+        List<Integer> pages = new ArrayList<>();
+        pages.add(head);
+        long remaining = storedSize - chunk.getInt(base + USED_OFFSET);
+        int next = chunk.getInt(base + NEXT_OFFSET);
+        while (next != NO_PAGE) {
+            if (next <= 0 || next >= pageCount || remaining <= 0 || chunk(next).get(offset(next)) != TYPE_DATA) {
+                return null;
+            }
+            // 数据页至少有一个字节，剩余长度每页递减，损坏的页链不会形成死循环
+            int used = chunk(next).getInt(offset(next) + USED_OFFSET);
+            if (used <= 0 || used > PAGE_SIZE - PAGE_HEADER) {
+                return null;
+            }
+            pages.add(next);
+            remaining -= used;
+            next = chunk(next).getInt(offset(next) + NEXT_OFFSET);
+        }
+        if (remaining != 0) {
+            return null;
+        }
+        Entry entry = new Entry(pages.stream().mapToInt(Integer::intValue).toArray(),
+                chunk.getLong(base + GENERATION_OFFSET), storedSize, chunk.getLong(base + GENERATION_OFFSET + 16));
+        try {
+            byte[] data = read(entry, names[0], names[1]);
+            if (checksum(entry, user, name, data) != chunk.getInt(base + CRC_OFFSET)) {
+                return null;
+            }
+        } catch (IllegalStateException e) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 分配空闲页，不足时映射新的区块扩展文件。调用方需持有写锁
+     */
+    private int[] allocate(int count) throws IOException {
+        while (freePages.cardinality() < count) {
+            MappedByteBuffer[] current = chunks;
+            MappedByteBuffer[] grown = new MappedByteBuffer[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[current.length] = channel.map(FileChannel.MapMode.READ_WRITE, current.length * CHUNK_SIZE, CHUNK_SIZE);
+            freePages.set(pageCount, pageCount + PAGES_PER_CHUNK);
+            pageCount += PAGES_PER_CHUNK;
+            chunks = grown;
+            log.info("grow page file chunks: {}", grown.length);
+        }
+        // 优先使用编号小的页，文件前部保持紧凑
+        int[] pages = new int[count];
+        int page = 0;
+        for (int i = 0; i < count; i++) {
+            page = freePages.nextSetBit(page);
+            pages[i] = page;
+            freePages.clear(page);
+        }
+        return pages;
+    }
+
+    /**
+     * 标记条目占用的首页为空闲并放回空闲页列表。调用方需持有写锁
+     */
+    private void free(Entry entry) {
+        setType(entry.pages()[0], TYPE_FREE);
+        for (int page : entry.pages()) {
+            freePages.set(page);
+        }
+    }
+
+    /**
+     * 放弃未提交的数据
+     */
+    private void release(Entry entry) {
+        lock.writeLock().lock();
+        try {
+            free(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void writePages(Entry entry, byte[] user, byte[] name, byte[] data, int headCapacity, int dataCapacity) {
+        int[] pages = entry.pages();
+        int position = 0;
+        // 数据页先写，首页最后写入，待提交状态下不会被当作有效数据
+        for (int i = pages.length - 1; i >= 0; i--) {
+            int page = pages[i];
+            MappedByteBuffer chunk = chunk(page);
+            int base = offset(page);
+            int start = i == 0 ? 0 : headCapacity + (i - 1) * dataCapacity;
+            int length = Math.min(data.length - start, i == 0 ? headCapacity : dataCapacity);
+            length = Math.max(length, 0);
+            int next = i == pages.length - 1 ? NO_PAGE : pages[i + 1];
+            chunk.putInt(base + USED_OFFSET, length);
+            chunk.putInt(base + NEXT_OFFSET, next);
+            if (i == 0) {
+                chunk.putLong(base + GENERATION_OFFSET, entry.generation());
+                chunk.putLong(base + GENERATION_OFFSET + 8, entry.storedSize());
+                chunk.putLong(base + GENERATION_OFFSET + 16, entry.lastModified());
+                chunk.putInt(base + CRC_OFFSET, checksum(entry, user, name, data));
+                chunk.putShort(base + NAME_LENGTH_OFFSET, (short) user.length);
+                chunk.putShort(base + NAME_LENGTH_OFFSET + 2, (short) name.length);
+                chunk.put(base + HEAD_HEADER, user);
+                chunk.put(base + HEAD_HEADER + user.length, name);
+                chunk.put(base + HEAD_HEADER + user.length + name.length, data, start, length);
+                chunk.put(base, TYPE_PENDING);
+            } else {
+                chunk.put(base + PAGE_HEADER, data, start, length);
+                chunk.put(base, TYPE_DATA);
+            }
+            position += length;
+        }
+        if (position != data.length) {
+            throw new IllegalStateException("page allocation mismatch");
+        }
+        if (durability != AtomicFileWriter.Durability.NONE) {
+            forcePages(pages);
+        }
+    }
+
+    /**
+     * 只刷盘写入的页，同一区块内编号连续的页合并为一次刷盘
+     */
+    private void forcePages(int[] pages) {
+        int[] sorted = pages.clone();
+        Arrays.sort(sorted);
+        int runStart = sorted[0];
+        int runEnd = runStart;
+        for (int i = 1; i <= sorted.length; i++) {
+            int page = i < sorted.length ? sorted[i] : NO_PAGE;
+            if (page == runEnd + 1 && page % PAGES_PER_CHUNK != 0) {
+                runEnd = page;
+                continue;
+            }
+            chunk(runStart).force(offset(runStart), (runEnd - runStart + 1) * PAGE_SIZE);
+            runStart = page;
+            runEnd = page;
+        }
+    }
+
+    private byte[] read(Entry entry, String username, String key) {
+        byte[] data = new byte[(int) entry.storedSize()];
+        int position = 0;
+        int[] pages = entry.pages();
+        for (int i = 0; i < pages.length; i++) {
+            MappedByteBuffer chunk = chunk(pages[i]);
+            int base = offset(pages[i]);
+            int length = chunk.getInt(base + USED_OFFSET);
+            int dataStart = i == 0
+                    ? HEAD_HEADER + (chunk.getShort(base + NAME_LENGTH_OFFSET) & 0xFFFF) + (chunk.getShort(base + NAME_LENGTH_OFFSET + 2) & 0xFFFF)
+                    : PAGE_HEADER;
+            if (length < 0 || position + length > data.length || dataStart + length > PAGE_SIZE) {
+                throw new IllegalStateException("corrupt page chain username: " + username + " key: " + key);
+            }
+            chunk.get(base + dataStart, data, position, length);
+            position += length;
+        }
+        return data;
+    }
+
+    private static int checksum(Entry entry, byte[] user, byte[] name, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(24).putLong(entry.generation()).putLong(entry.storedSize()).putLong(entry.lastModified()).flip());
+        crc.update(user);
+        crc.update(name);
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private Entry entry(String username, String key) {
+        Map<String, Entry> userEntries = directory.get(username);
+        return userEntries == null ? null : userEntries.get(key);
+    }
+
+    private void setType(int page, byte type) {
+        chunk(page).put(offset(page), type);
+    }
+
+    private void force(int page) {
+        if (durability != AtomicFileWriter.Durability.NONE) {
+            chunk(page).force(offset(page), PAGE_SIZE);
+        }
+    }
+
+    private MappedByteBuffer chunk(int page) {
+        return chunks[page / PAGES_PER_CHUNK];
+    }
+
+    private static int offset(int page) {
+        return (page % PAGES_PER_CHUNK) * PAGE_SIZE;
+    }
+}
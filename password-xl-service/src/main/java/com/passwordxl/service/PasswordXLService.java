@@ -1,35 +1,70 @@
 package com.passwordxl.service;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.io.IoUtil;
-import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.io.IORuntimeException;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.http.HttpStatus;
 import com.alibaba.fastjson2.JSONObject;
 import com.passwordxl.bean.*;
 import com.passwordxl.common.RestResult;
 import com.passwordxl.util.JwtUtil;
+import com.passwordxl.util.TextDelta;
 import com.passwordxl.util.UserContent;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PasswordXLService {
 
+    private final ContentMetaIndex contentMetaIndex;
+    private final ContentCache contentCache;
+    private final ContentLockManager contentLockManager;
+    private final ImageStore imageStore;
+    private final TokenService tokenService;
+    private final ContentCodec contentCodec;
+    private final StorageEngine storageEngine;
+    private final ChangeNotifier changeNotifier;
+    private final ServiceMetrics serviceMetrics;
+    private final VersionLog versionLog;
+    private final ReplicationLog replicationLog;
+    private final ThumbnailCache thumbnailCache;
+
+    // 访问日志按操作分类，可在日志配置中单独采样或关闭
+    private static final Logger ACCESS_GET = LoggerFactory.getLogger("password-xl.access.get");
+    private static final Logger ACCESS_PUT = LoggerFactory.getLogger("password-xl.access.put");
+    private static final Logger ACCESS_DELETE = LoggerFactory.getLogger("password-xl.access.delete");
+    private static final Logger ACCESS_GET_ETAG = LoggerFactory.getLogger("password-xl.access.getEtag");
+
     private static final Map<String, String> MIME_MAP = new HashMap<>();
     static {
         MIME_MAP.put("jpg",  "image/jpeg");
@@ -42,6 +77,9 @@ public class PasswordXLService {
         MIME_MAP.put("heic", "image/heic");
         MIME_MAP.put("ico",  "image/x-icon");
     }
+    // 图片目录：上传前缀或 blob，图片文件名：随机名或内容哈希加扩展名
+    private static final Pattern IMAGE_DIR = Pattern.compile("^[A-Za-z0-9]+$");
+    private static final Pattern IMAGE_NAME = Pattern.compile("^[A-Za-z0-9]+\\.[A-Za-z0-9]+$");
 
     /**
      * 登录
@@ -55,24 +93,54 @@ public class PasswordXLService {
         User user = DataService.users.get(username);
         if (user == null) {
             log.info("username not exist: {}", loginParam.getUsername());
+            serviceMetrics.loginFailed();
             return RestResult.genErrorResult(HttpStatus.HTTP_UNAUTHORIZED, "用户名或密码错误");
         }
 
         if (!Objects.equals(user.getPassword(), loginParam.getPassword())) {
             log.info("username or password incorrect: {}", loginParam.getUsername());
+            serviceMetrics.loginFailed();
             return RestResult.genErrorResult(HttpStatus.HTTP_UNAUTHORIZED, "用户名或密码错误");
         }
 
         if (user.getStatus() != null && user.getStatus() == 0) {
             log.info("user was disabled: {}", loginParam.getUsername());
+            serviceMetrics.loginFailed();
             return RestResult.genErrorResult(HttpStatus.HTTP_UNAUTHORIZED, "该用户已被禁用");
         }
 
-        String token = JwtUtil.generateToken(username);
+        String token = tokenService.generate(username);
         log.info("user login succeed: {}", loginParam.getUsername());
+        serviceMetrics.loginSucceeded();
         return RestResult.genSuccessResult(token);
     }
 
+    /**
+     * 刷新token，旧token随即失效，用旧token建立的推送连接同时关闭
+     *
+     * @param claims 当前token的声明
+     * @return 新token
+     */
+    public RestResult<String> refreshToken(JwtUtil.Claims claims) {
+        log.info("refresh token username: {}", claims.username());
+        String token = tokenService.refresh(claims);
+        changeNotifier.closeToken(claims.username(), claims.id());
+        return RestResult.genSuccessResult(token);
+    }
+
+    /**
+     * 退出登录，吊销当前token
+     *
+     * @param claims 当前token的声明
+     * @return 结果
+     */
+    public RestResult<String> logout(JwtUtil.Claims claims) {
+        log.info("logout username: {}", claims.username());
+        tokenService.revoke(claims);
+        changeNotifier.closeToken(claims.username(), claims.id());
+        return RestResult.genSuccessResult();
+    }
+
     /**
      * 上传内容
      *
@@ -80,21 +148,194 @@ public class PasswordXLService {
      * @return 上传结果
      */
     public RestResult<JSONObject> putContent(PutContentParam putContentParam) {
-        String username = UserContent.getUser().getUsername();
+        return putContent(UserContent.getUser().getUsername(), putContentParam);
+    }
+
+    /**
+     * 上传内容
+     *
+     * @param username 用户名
+     * @param putContentParam 内容
+     * @return 上传结果
+     */
+    public RestResult<JSONObject> putContent(String username, PutContentParam putContentParam) {
         String contentName = putContentParam.getKey();
         String content = putContentParam.getContent();
-        log.info("put username: {} key: {} size: {}", username, contentName, content.length());
-        File file = new File(DataService.workPath + "/password-xl-data/" + username + "/" + contentName);
-        if (!file.getParentFile().exists()) {
-            FileUtil.mkdir(file.getParentFile());
+        log.debug("put username: {} key: {} size: {}", username, contentName, content.length());
+        ContentSource source = ContentSource.of(content.getBytes(StandardCharsets.UTF_8));
+        PutResult putResult = commitPut(username, contentName, putContentParam.getEtag(), current -> source);
+        if (putResult.conflict()) {
+            JSONObject result = new JSONObject();
+            result.put("etag", putResult.meta() == null ? null : putResult.meta().getEtag());
+            return RestResult.genErrorResult(HttpStatus.HTTP_PRECON_FAILED, "内容已被其他客户端更新", result);
         }
-        FileUtil.writeUtf8String(content, file);
-        log.info("put succeed username: {} key: {}", username, contentName);
+        // 写入的内容直接放入缓存，下次修改后可作为增量的基准
+        contentCache.put(username, contentName, putResult.meta(), content);
         JSONObject result = new JSONObject();
-        result.put("etag", file.lastModified());
+        result.put("etag", putResult.meta().getEtag());
         return RestResult.genSuccessResult(result);
     }
 
+    /**
+     * 批量上传内容，所有内容全部写入或全部不写入
+     * <p>
+     * 按key排序加锁后统一校验标记并写入存储引擎但暂不生效，全部成功后才依次提交。
+     * 提交期间被覆盖的原数据保存在内存中，某个提交失败时恢复已提交的内容，全部提交成功后才更新元数据
+     *
+     * @param username         用户名
+     * @param putContentParams 内容列表，key不能重复
+     * @return 与参数顺序一致的上传结果
+     */
+    public List<RestResult<JSONObject>> putContentAll(String username, List<PutContentParam> putContentParams) {
+        log.info("put all username: {} count: {}", username, putContentParams.size());
+        Set<String> contentNames = new TreeSet<>();
+        for (PutContentParam putContentParam : putContentParams) {
+            validateKey(username, putContentParam.getKey());
+            contentNames.add(putContentParam.getKey());
+        }
+        if (contentNames.size() != putContentParams.size()) {
+            throw new IllegalArgumentException("批量写入的内容不能重复");
+        }
+        List<ContentLockManager.Handle> handles = new ArrayList<>(contentNames.size());
+        Map<String, StorageEngine.Pending> pendings = new HashMap<>();
+        List<ReplicationLog.Change> changes = new ArrayList<>(contentNames.size());
+        try {
+            // 固定顺序加锁，避免与其他批量写入互相等待
+            for (String contentName : contentNames) {
+                handles.add(contentLockManager.lockKey(username, contentName));
+            }
+            List<RestResult<JSONObject>> results = new ArrayList<>(putContentParams.size());
+            boolean conflict = false;
+            for (PutContentParam putContentParam : putContentParams) {
+                ContentMeta current = contentMetaIndex.get(username, putContentParam.getKey());
+                String currentEtag = current == null ? null : current.getEtag();
+                JSONObject result = new JSONObject();
+                result.put("etag", currentEtag);
+                if (StrUtil.isNotBlank(putContentParam.getEtag()) && !putContentParam.getEtag().equals(currentEtag)) {
+                    log.info("put all etag mismatch username: {} key: {} expect: {} current: {}", username, putContentParam.getKey(), putContentParam.getEtag(), currentEtag);
+                    conflict = true;
+                    results.add(RestResult.genErrorResult(HttpStatus.HTTP_PRECON_FAILED, "内容已被其他客户端更新", result));
+                } else {
+                    results.add(RestResult.genErrorResult(HttpStatus.HTTP_PRECON_FAILED, "批量写入中其他内容校验失败", result));
+                }
+            }
+            if (conflict) {
+                return results;
+            }
+
+            Map<String, ContentSource> sources = new HashMap<>();
+            Map<String, ContentMeta> metas = new HashMap<>();
+            for (PutContentParam putContentParam : putContentParams) {
+                String contentName = putContentParam.getKey();
+                ContentSource source = ContentSource.of(putContentParam.getContent().getBytes(StandardCharsets.UTF_8));
+                long ioStart = System.nanoTime();
+                pendings.put(contentName, storageEngine.prepare(username, contentName, out -> contentCodec.write(source, out)));
+                serviceMetrics.recordIo(ServiceMetrics.IoOp.WRITE, ioStart);
+                sources.put(contentName, source);
+            }
+
+            // 提交前记录被覆盖内容的历史版本，失败时不提交任何内容
+            for (String contentName : contentNames) {
+                appendBaseline(username, contentName);
+            }
+            for (String contentName : contentNames) {
+                changes.add(replicationLog.record(ReplicationLog.Kind.CONTENT, username, contentName));
+            }
+
+            // 提交是逐个完成的原子替换，先保存被覆盖的数据，某个提交失败时把已提交的内容恢复原样
+            Map<String, byte[]> previous = new HashMap<>();
+            for (String contentName : contentNames) {
+                previous.put(contentName, storageEngine.get(username, contentName));
+            }
+            Map<String, Long> storedSizes = new HashMap<>();
+            List<String> committed = new ArrayList<>(contentNames.size());
+            for (String contentName : contentNames) {
+                contentMetaIndex.beginWrite(username, contentName);
+            }
+            try {
+                for (String contentName : contentNames) {
+                    StorageEngine.Pending pending = pendings.remove(contentName);
+                    long storedSize = pending.storedSize();
+                    try (pending) {
+                        storageEngine.commit(pending);
+                    } catch (IOException | RuntimeException e) {
+                        log.error("put all commit failed, rollback username: {} key: {} committed: {}", username, contentName, committed.size());
+                        rollback(username, committed, previous, sources);
+                        throw e;
+                    }
+                    committed.add(contentName);
+                    storedSizes.put(contentName, storedSize);
+                }
+                // 全部提交成功后才更新元数据
+                for (String contentName : contentNames) {
+                    ContentSource source = sources.get(contentName);
+                    metas.put(contentName, contentMetaIndex.update(username, contentName, source.getEtag(), source.getSize(), storedSizes.get(contentName)));
+                }
+            } finally {
+                for (String contentName : contentNames) {
+                    contentMetaIndex.endWrite(username, contentName);
+                }
+            }
+
+            results.clear();
+            for (PutContentParam putContentParam : putContentParams) {
+                String contentName = putContentParam.getKey();
+                ContentMeta meta = metas.get(contentName);
+                appendVersion(username, contentName, meta);
+                contentCache.invalidate(username, contentName);
+                contentCache.put(username, contentName, meta, putContentParam.getContent());
+                changeNotifier.publish(username, contentName, meta);
+                serviceMetrics.contentWritten(username, meta.getSize());
+                JSONObject result = new JSONObject();
+                result.put("etag", meta.getEtag());
+                results.add(RestResult.genSuccessResult(result));
+            }
+            log.info("put all succeed username: {} count: {}", username, putContentParams.size());
+            return results;
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        } finally {
+            // 放弃未提交的数据
+            for (StorageEngine.Pending pending : pendings.values()) {
+                pending.close();
+            }
+            for (ReplicationLog.Change change : changes) {
+                change.close();
+            }
+            for (int i = handles.size() - 1; i >= 0; i--) {
+                handles.get(i).close();
+            }
+        }
+    }
+
+    /**
+     * 批量提交失败时恢复已提交内容的原数据，原本不存在的内容删除
+     * <p>
+     * 恢复失败的内容保留新数据，并把元数据更新为新内容，保证元数据与存储一致
+     */
+    private void rollback(String username, List<String> committed, Map<String, byte[]> previous, Map<String, ContentSource> sources) {
+        for (String contentName : committed) {
+            byte[] stored = previous.get(contentName);
+            try {
+                if (stored == null) {
+                    storageEngine.delete(username, contentName);
+                } else {
+                    storageEngine.put(username, contentName, out -> out.write(stored));
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("put all rollback failed username: {} key: {}", username, contentName, e);
+                try {
+                    StorageEngine.Stat stat = storageEngine.stat(username, contentName);
+                    ContentSource source = sources.get(contentName);
+                    contentMetaIndex.update(username, contentName, source.getEtag(), source.getSize(), stat == null ? 0 : stat.storedSize());
+                    contentCache.invalidate(username, contentName);
+                } catch (IOException | RuntimeException ex) {
+                    log.error("put all rollback meta update failed username: {} key: {}", username, contentName, ex);
+                }
+            }
+        }
+    }
+
     /**
      * 获取内容
      *
@@ -102,20 +343,117 @@ public class PasswordXLService {
      * @return 内容
      */
     public RestResult<JSONObject> getContent(GetContentParam getContentParam) {
-        String username = UserContent.getUser().getUsername();
+        return getContent(UserContent.getUser().getUsername(), getContentParam);
+    }
+
+    /**
+     * 获取内容
+     *
+     * @param username 用户名
+     * @param getContentParam 要获取的文件信息
+     * @return 内容
+     */
+    public RestResult<JSONObject> getContent(String username, GetContentParam getContentParam) {
         String contentName = getContentParam.getKey();
-        log.info("get username: {} key: {}", username, contentName);
-        File file = new File(DataService.workPath + "/password-xl-data/" + username + "/" + contentName);
-        if (!file.exists()) {
+        log.debug("get username: {} key: {}", username, contentName);
+        ContentData data = readContent(username, contentName);
+        if (data == null) {
             log.info("get not found username: {} key: {}", username, contentName);
             return RestResult.genErrorResult(HttpStatus.HTTP_NOT_FOUND, "内容不存在");
         }
-        String content = FileUtil.readUtf8String(file);
-        log.info("get succeed username: {} key: {} size: {}", username, contentName, content.length());
+        ACCESS_GET.atInfo().addKeyValue("user", username).addKeyValue("key", contentName)
+                .addKeyValue("size", data.meta().getSize()).log("get succeed");
+        serviceMetrics.contentRead(username, data.meta().getSize());
 
         JSONObject result = new JSONObject();
-        result.put("etag", file.lastModified());
-        result.put("content", content);
+        result.put("etag", data.meta().getEtag());
+        result.put("content", data.content());
+        return RestResult.genSuccessResult(result);
+    }
+
+    /**
+     * 增量上传内容，在服务端内容上应用修改片段
+     *
+     * @param patchContentParam 增量参数
+     * @return 上传结果
+     */
+    public RestResult<JSONObject> patchContent(PatchContentParam patchContentParam) {
+        String username = UserContent.getUser().getUsername();
+        String contentName = patchContentParam.getKey();
+        List<PatchOp> ops = patchContentParam.getOps() == null ? List.of() : patchContentParam.getOps();
+        log.info("patch username: {} key: {} ops: {}", username, contentName, ops.size());
+        if (StrUtil.isBlank(patchContentParam.getBaseEtag())) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "缺少文件标记");
+        }
+        String[] patched = new String[1];
+        PutResult putResult;
+        try {
+            putResult = commitPut(username, contentName, patchContentParam.getBaseEtag(), current -> {
+                // 已在key锁内且标记已校验，读取到的就是修改基于的内容
+                ContentData base = readContent(username, contentName);
+                if (base == null) {
+                    throw new IllegalArgumentException("内容不存在");
+                }
+                patched[0] = TextDelta.apply(base.content(), ops);
+                return ContentSource.of(patched[0].getBytes(StandardCharsets.UTF_8));
+            });
+        } catch (IllegalArgumentException e) {
+            log.info("patch failed username: {} key: {} reason: {}", username, contentName, e.getMessage());
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, e.getMessage());
+        }
+        if (putResult.conflict()) {
+            JSONObject result = new JSONObject();
+            result.put("etag", putResult.meta() == null ? null : putResult.meta().getEtag());
+            return RestResult.genErrorResult(HttpStatus.HTTP_PRECON_FAILED, "内容已被其他客户端更新", result);
+        }
+        contentCache.put(username, contentName, putResult.meta(), patched[0]);
+        JSONObject result = new JSONObject();
+        result.put("etag", putResult.meta().getEtag());
+        return RestResult.genSuccessResult(result);
+    }
+
+    /**
+     * 增量获取内容，返回从客户端已有内容到最新内容的修改片段。
+     * 客户端已有的内容依次从缓存和历史版本中查找，都不存在或增量不比完整内容小时，返回完整内容
+     *
+     * @param getDeltaParam 增量获取参数
+     * @return 最新标记以及修改片段(ops)或完整内容(content)
+     */
+    public RestResult<JSONObject> getDelta(GetDeltaParam getDeltaParam) {
+        String username = UserContent.getUser().getUsername();
+        String contentName = getDeltaParam.getKey();
+        String baseEtag = getDeltaParam.getBaseEtag();
+        log.info("getDelta username: {} key: {} base: {}", username, contentName, baseEtag);
+        ContentData data = readContent(username, contentName);
+        if (data == null) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_NOT_FOUND, "内容不存在");
+        }
+        JSONObject result = new JSONObject();
+        result.put("etag", data.meta().getEtag());
+        if (data.meta().getEtag().equals(baseEtag)) {
+            result.put("ops", List.of());
+            return RestResult.genSuccessResult(result);
+        }
+        String base = StrUtil.isBlank(baseEtag) ? null : contentCache.getVersion(username, contentName, baseEtag);
+        if (base == null && StrUtil.isNotBlank(baseEtag)) {
+            // 缓存中没有时从历史版本中查找客户端已有的内容
+            try {
+                base = versionLog.readByEtag(username, contentName, baseEtag);
+            } catch (IOException e) {
+                log.warn("getDelta read version failed username: {} key: {} error: {}", username, contentName, e.toString());
+            }
+        }
+        if (base != null) {
+            List<PatchOp> ops = TextDelta.diff(base, data.content());
+            long insertLength = ops.stream().mapToLong(op -> op.getInsert().length()).sum();
+            if (insertLength < data.content().length() / 2) {
+                log.info("getDelta succeed username: {} key: {} insert: {}", username, contentName, insertLength);
+                result.put("ops", ops);
+                return RestResult.genSuccessResult(result);
+            }
+        }
+        log.info("getDelta full content username: {} key: {} size: {}", username, contentName, data.content().length());
+        result.put("content", data.content());
         return RestResult.genSuccessResult(result);
     }
 
@@ -126,25 +464,53 @@ public class PasswordXLService {
      * @return 结果
      */
     public RestResult<String> deleteContent(DeleteContentParam deleteContentParam) {
-        String username = UserContent.getUser().getUsername();
+        return deleteContent(UserContent.getUser().getUsername(), deleteContentParam);
+    }
+
+    /**
+     * 删除内容
+     *
+     * @param username 用户名
+     * @param deleteContentParam 要删除的文件信息
+     * @return 结果
+     */
+    public RestResult<String> deleteContent(String username, DeleteContentParam deleteContentParam) {
         String contentName = deleteContentParam.getKey();
-        log.info("delete username: {} key: {}", username, contentName);
-        File file = new File(DataService.workPath + "/password-xl-data/" + username + "/" + contentName);
-        if (!file.exists()) {
-            log.info("delete file not exist username: {} key: {}", username, contentName);
-            return RestResult.genSuccessResult();
-        }
-        boolean delete = file.delete();
-        if (!delete) {
-            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, "删除失败");
+        log.debug("delete username: {} key: {}", username, contentName);
+        validateKey(username, contentName);
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, contentName)) {
+            long ioStart = System.nanoTime();
+            boolean deleted;
+            try (ReplicationLog.Change ignoredChange = replicationLog.record(ReplicationLog.Kind.CONTENT, username, contentName)) {
+                contentMetaIndex.beginWrite(username, contentName);
+                try {
+                    deleted = storageEngine.delete(username, contentName);
+                    if (deleted) {
+                        contentMetaIndex.remove(username, contentName);
+                    }
+                } finally {
+                    contentMetaIndex.endWrite(username, contentName);
+                }
+            } catch (IOException e) {
+                log.error("delete file error username: {} key: {}", username, contentName, e);
+                return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, "删除失败");
+            }
+            if (!deleted) {
+                log.info("delete file not exist username: {} key: {}", username, contentName);
+                return RestResult.genSuccessResult();
+            }
+            serviceMetrics.recordIo(ServiceMetrics.IoOp.DELETE, ioStart);
+            contentCache.invalidate(username, contentName);
+            changeNotifier.publish(username, contentName, null);
         }
-        File fileDir = new File(DataService.workPath + "/password-xl-data/" + username);
-        File[] files = fileDir.listFiles();
-        if (files != null && files.length == 0) {
-            boolean deleteResult = fileDir.delete();
-            if (!deleteResult) {
-                log.warn("delete file succeed, but delete folder fail: {}", fileDir.getName());
+        ACCESS_DELETE.atInfo().addKeyValue("user", username).addKeyValue("key", contentName).log("delete succeed");
+        // 用户目录为空时清理，有其他写入进行中则跳过，避免删除正在写入的目录
+        try (ContentLockManager.Handle userLock = contentLockManager.tryLockUser(username)) {
+            if (userLock != null) {
+                storageEngine.cleanup(username);
             }
+        } catch (IOException e) {
+            log.warn("cleanup storage error username: {}", username, e);
         }
         return RestResult.genSuccessResult();
     }
@@ -156,19 +522,158 @@ public class PasswordXLService {
      * @return 结果
      */
     public RestResult<JSONObject> getEtag(GetContentParam getContentParam) {
-        String username = UserContent.getUser().getUsername();
+        return getEtag(UserContent.getUser().getUsername(), getContentParam);
+    }
+
+    /**
+     * 获取文件标记
+     *
+     * @param username 用户名
+     * @param getContentParam 获取参数
+     * @return 结果
+     */
+    public RestResult<JSONObject> getEtag(String username, GetContentParam getContentParam) {
         String contentName = getContentParam.getKey();
-        log.info("getEtag username: {} key: {}", username, contentName);
-        File file = new File(DataService.workPath + "/password-xl-data/" + username + "/" + contentName);
-        if (!file.exists()) {
+        validateKey(username, contentName);
+        ContentMeta meta = contentMetaIndex.get(username, contentName);
+        ACCESS_GET_ETAG.atInfo().addKeyValue("user", username).addKeyValue("key", contentName)
+                .addKeyValue("etag", meta == null ? null : meta.getEtag()).log("getEtag succeed");
+        if (meta == null) {
             return RestResult.genSuccessResult();
         }
 
         JSONObject result = new JSONObject();
-        result.put("etag", file.lastModified());
+        result.put("etag", meta.getEtag());
+        return RestResult.genSuccessResult(result);
+    }
+
+    /**
+     * 获取内容的历史版本列表
+     *
+     * @param getContentParam 获取参数
+     * @return 版本列表，最新版本在前
+     */
+    public RestResult<List<ContentVersion>> listVersions(GetContentParam getContentParam) {
+        String username = UserContent.getUser().getUsername();
+        String contentName = getContentParam.getKey();
+        validateKey(username, contentName);
+        List<VersionLog.Entry> entries = versionLog.list(username, contentName);
+        log.info("list versions username: {} key: {} count: {}", username, contentName, entries.size());
+        List<ContentVersion> versions = new ArrayList<>(entries.size());
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            VersionLog.Entry entry = entries.get(i);
+            versions.add(new ContentVersion(entry.version(), entry.etag(), entry.size(), entry.time()));
+        }
+        return RestResult.genSuccessResult(versions);
+    }
+
+    /**
+     * 获取内容的指定历史版本
+     *
+     * @param getVersionParam 获取参数
+     * @return 内容
+     */
+    public RestResult<JSONObject> getVersion(GetVersionParam getVersionParam) {
+        String username = UserContent.getUser().getUsername();
+        String contentName = getVersionParam.getKey();
+        validateKey(username, contentName);
+        if (getVersionParam.getVersion() == null) {
+            return RestResult.genErrorResult(HttpStatus.HTTP_BAD_REQUEST, "缺少版本号");
+        }
+        long version = getVersionParam.getVersion();
+        VersionLog.Entry entry = versionLog.list(username, contentName).stream()
+                .filter(e -> e.version() == version).findFirst().orElse(null);
+        String content;
+        try {
+            content = entry == null ? null : versionLog.read(username, contentName, version);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        if (content == null) {
+            log.info("get version not found username: {} key: {} version: {}", username, contentName, version);
+            return RestResult.genErrorResult(HttpStatus.HTTP_NOT_FOUND, "版本不存在");
+        }
+        log.info("get version succeed username: {} key: {} version: {}", username, contentName, version);
+        serviceMetrics.contentRead(username, entry.size());
+
+        JSONObject result = new JSONObject();
+        result.put("version", version);
+        result.put("etag", entry.etag());
+        result.put("time", entry.time());
+        result.put("content", content);
         return RestResult.genSuccessResult(result);
     }
 
+    /**
+     * 流式获取内容，内容标记通过ETag响应头返回
+     *
+     * @param contentName 内容key
+     * @param request     请求
+     * @param response    响应
+     */
+    public void getRaw(String contentName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String username = UserContent.getUser().getUsername();
+        log.debug("getRaw username: {} key: {}", username, contentName);
+        validateKey(username, contentName);
+        ContentMetaIndex.Snapshot snapshot = contentMetaIndex.open(username, contentName);
+        if (snapshot != null) {
+            try (snapshot) {
+                InputStream stored = snapshot.stored();
+                ContentMeta meta = snapshot.meta();
+                String etag = quoteEtag(meta.getEtag());
+                response.setHeader("ETag", etag);
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+                response.setContentType("application/octet-stream");
+                response.setHeader("Vary", "Accept-Encoding");
+                ContentCodec.Codec codec = contentCodec.readCodec(stored);
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (codec == ContentCodec.Codec.NONE) {
+                    response.setContentLengthLong(meta.getStoredSize());
+                    stored.transferTo(response.getOutputStream());
+                } else if (codec == ContentCodec.Codec.GZIP && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    // gzip存储的内容直接作为gzip响应，不解压
+                    response.setHeader("Content-Encoding", "gzip");
+                    response.setContentLengthLong(meta.getStoredSize() - ContentCodec.HEADER_LENGTH);
+                    stored.transferTo(response.getOutputStream());
+                } else {
+                    response.setContentLengthLong(meta.getSize());
+                    try (InputStream in = contentCodec.decode(codec, stored)) {
+                        in.transferTo(response.getOutputStream());
+                    }
+                }
+                response.flushBuffer();
+                ACCESS_GET.atInfo().addKeyValue("user", username).addKeyValue("key", contentName)
+                        .addKeyValue("size", meta.getSize()).addKeyValue("codec", codec).log("getRaw succeed");
+                serviceMetrics.contentRead(username, meta.getSize());
+                return;
+            }
+        }
+        log.info("getRaw not found username: {} key: {}", username, contentName);
+        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    /**
+     * 流式上传内容，If-Match请求头为期望的内容标记，新的内容标记通过ETag响应头返回
+     *
+     * @param contentName 内容key
+     * @param request     请求
+     * @param response    响应
+     */
+    public void putRaw(String contentName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String username = UserContent.getUser().getUsername();
+        log.debug("putRaw username: {} key: {} size: {}", username, contentName, request.getContentLengthLong());
+        String expectEtag = unquoteEtag(request.getHeader("If-Match"));
+        ContentSource source = ContentSource.of(request.getInputStream());
+        PutResult putResult = commitPut(username, contentName, expectEtag, current -> source);
+        if (putResult.meta() != null) {
+            response.setHeader("ETag", quoteEtag(putResult.meta().getEtag()));
+        }
+        response.setStatus(putResult.conflict() ? HttpServletResponse.SC_PRECONDITION_FAILED : HttpServletResponse.SC_NO_CONTENT);
+    }
+
     public JSONObject uploadImage(String prefix, MultipartFile file) {
         if (!prefix.matches("^[A-Za-z0-9]+$")) {
             throw new RuntimeException("路径错误");
@@ -184,54 +689,343 @@ public class PasswordXLService {
         }
 
         String username = UserContent.getUser().getUsername();
-        Path safeBase = Paths.get(DataService.workPath, "password-xl-data", username, "images", prefix);
-        Path target = safeBase.resolve(IdUtil.fastSimpleUUID().substring(0, 16) + "." + extName).normalize();
-        if (!target.startsWith(safeBase)) {
-            throw new RuntimeException("非法路径");
-        }
-
-        File dest = target.toFile();
-        if (!dest.getParentFile().exists()) {
-            FileUtil.mkdir(dest.getParentFile());
-        }
-        try {
-            file.transferTo(dest);
+        String objectKey;
+        try (InputStream in = file.getInputStream()) {
+            objectKey = imageStore.store(username, prefix, extName, in);
         } catch (IOException e) {
             log.error("upload image error", e);
             throw new RuntimeException("上传失败");
         }
-        String name = "/" + UserContent.getUser().getUsername() + "/images/" + prefix + "/" + dest.getName();
+        log.info("upload image succeed username: {} objectKey: {}", username, objectKey);
         JSONObject result = new JSONObject();
-        result.put("objectKey", name);
+        result.put("objectKey", objectKey);
         return result;
     }
 
-    public void image(String objectKey, HttpServletResponse response) {
+    /**
+     * 清理不再被引用的图片
+     *
+     * @param gcImageParam 清理参数
+     * @return 清理结果
+     */
+    public RestResult<JSONObject> gcImages(GcImageParam gcImageParam) {
+        String username = UserContent.getUser().getUsername();
+        boolean dryRun = Boolean.TRUE.equals(gcImageParam.getDryRun());
+        try {
+            return RestResult.genSuccessResult(imageStore.gc(username, dryRun));
+        } catch (IOException e) {
+            log.error("gc images error username: {}", username, e);
+            return RestResult.genErrorResult(HttpStatus.HTTP_INTERNAL_ERROR, "清理失败");
+        }
+    }
+
+    /**
+     * 下载图片
+     * <p>
+     * 图片文件名上传后不再变化，响应允许客户端长期缓存；条件请求与Range请求由Spring资源处理完成。
+     * 指定尺寸时返回等比缩小的缩略图，缩略图由原图生成，同样可以长期缓存。
+     *
+     * @param objectKey 图片key
+     * @param size      最大边长，为空时返回原图
+     * @return 图片资源
+     */
+    public ResponseEntity<Resource> image(String objectKey, Integer size) {
         Path safeBase = Paths.get(DataService.workPath, "password-xl-data");
         Path target = safeBase.resolve(objectKey).normalize();
         if (!target.startsWith(safeBase)) {
             throw new RuntimeException("非法路径");
         }
+        // 只允许访问 用户/images/目录/图片 形式的图片文件，目录与文件名不能以.开头，引用记录、临时文件与缩略图不对外提供
+        Path relative = safeBase.relativize(target);
+        if (relative.getNameCount() != 4 || relative.getName(0).toString().startsWith(".")
+                || !"images".equals(relative.getName(1).toString())
+                || !IMAGE_DIR.matcher(relative.getName(2).toString()).matches()
+                || !IMAGE_NAME.matcher(relative.getName(3).toString()).matches()
+                || !MIME_MAP.containsKey(FileUtil.extName(relative.getName(3).toString()).toLowerCase())) {
+            throw new RuntimeException("非法路径");
+        }
         File file = target.toFile();
-        if (!file.exists()) {
-            throw new RuntimeException("文件不存在");
+        if (!file.isFile()) {
+            return ResponseEntity.notFound().build();
         }
 
         String extName = FileUtil.extName(file.getName());
+        if (size != null && size > 0) {
+            file = thumbnailCache.get(target, extName, size).toFile();
+            extName = FileUtil.extName(file.getName());
+        }
 
         // 设置通用图片类型
         String contentType = MIME_MAP.get(extName.toLowerCase());
         if (StrUtil.isBlank(contentType)) {
             contentType = "image/" + extName;
         }
-        response.setContentType(contentType);
 
-        try (FileInputStream fis = new FileInputStream(file)) {
-            IoUtil.copy(fis, response.getOutputStream());
-            response.flushBuffer();
+        long lastModified = file.lastModified();
+        String etag = quoteEtag(Long.toHexString(lastModified) + "-" + Long.toHexString(file.length()));
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentType))
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+                .eTag(etag)
+                .lastModified(lastModified)
+                .body(new FileSystemResource(file));
+    }
+
+    /**
+     * 写入结果
+     *
+     * @param meta     写入成功时为新的元数据，标记不匹配时为当前元数据
+     * @param conflict 是否因标记不匹配而未写入
+     */
+    private record PutResult(ContentMeta meta, boolean conflict) {
+    }
+
+    /**
+     * 在key锁内生成待写入的内容
+     */
+    @FunctionalInterface
+    private interface ContentProducer {
+        /**
+         * @param current 当前元数据，内容不存在时为null
+         * @return 待写入的内容
+         */
+        ContentSource produce(ContentMeta current);
+    }
+
+    /**
+     * 在key锁内校验期望标记并原子写入内容
+     *
+     * @param username    用户名
+     * @param contentName 内容key
+     * @param expectEtag  期望的内容标记，为空时不校验
+     * @param producer    标记校验通过后生成待写入的内容
+     * @return 写入结果
+     */
+    private PutResult commitPut(String username, String contentName, String expectEtag, ContentProducer producer) {
+        validateKey(username, contentName);
+        // 校验标记与写入在同一把锁内完成，避免两个客户端同时通过校验
+        ContentMeta meta;
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, contentName)) {
+            // 首次访问时会先构建索引，之后才会产生临时文件
+            ContentMeta current = contentMetaIndex.get(username, contentName);
+            if (StrUtil.isNotBlank(expectEtag)) {
+                String currentEtag = current == null ? null : current.getEtag();
+                if (!expectEtag.equals(currentEtag)) {
+                    log.info("put etag mismatch username: {} key: {} expect: {} current: {}", username, contentName, expectEtag, currentEtag);
+                    return new PutResult(current, true);
+                }
+            }
+            ContentSource source = producer.produce(current);
+            appendBaseline(username, contentName);
+            // 先记录变更再写入，写入与更新元数据完成后变更才对从节点可见
+            try (ReplicationLog.Change ignoredChange = replicationLog.record(ReplicationLog.Kind.CONTENT, username, contentName)) {
+                long ioStart = System.nanoTime();
+                contentMetaIndex.beginWrite(username, contentName);
+                try {
+                    long storedSize = storageEngine.put(username, contentName, out -> contentCodec.write(source, out));
+                    serviceMetrics.recordIo(ServiceMetrics.IoOp.WRITE, ioStart);
+                    meta = contentMetaIndex.update(username, contentName, source.getEtag(), source.getSize(), storedSize);
+                } finally {
+                    contentMetaIndex.endWrite(username, contentName);
+                }
+            } catch (IOException e) {
+                throw new IORuntimeException(e);
+            }
+            appendVersion(username, contentName, meta);
+            contentCache.invalidate(username, contentName);
+            // 在锁内发布，保证同一个key的通知顺序与提交顺序一致
+            changeNotifier.publish(username, contentName, meta);
+        }
+        ACCESS_PUT.atInfo().addKeyValue("user", username).addKeyValue("key", contentName)
+                .addKeyValue("size", meta.getSize()).addKeyValue("version", meta.getVersion()).log("put succeed");
+        serviceMetrics.contentWritten(username, meta.getSize());
+        return new PutResult(meta, false);
+    }
+
+    /**
+     * 恢复备份中的内容，与本地内容标记一致时跳过
+     *
+     * @param username    用户名
+     * @param contentName 内容key
+     * @param etag        备份时的内容标记
+     * @param in          内容
+     * @return 是否写入
+     */
+    public boolean restoreContent(String username, String contentName, String etag, InputStream in) {
+        validateKey(username, contentName);
+        ContentMeta current = contentMetaIndex.get(username, contentName);
+        if (current != null && current.getEtag().equals(etag)) {
+            return false;
+        }
+        ContentSource source = ContentSource.of(in);
+        commitPut(username, contentName, null, meta -> source);
+        return true;
+    }
+
+    /**
+     * 应用主节点同步的内容，从节点使用
+     * <p>
+     * 数据按存储格式原样写入，内容标记与大小使用主节点的值；与本地内容一致时跳过，重复应用不会产生新版本
+     *
+     * @param username    用户名
+     * @param contentName 内容key
+     * @param etag        内容标记
+     * @param size        内容字节数
+     * @param stored      存储引擎中的数据
+     */
+    public void replicatePut(String username, String contentName, String etag, long size, byte[] stored) throws IOException {
+        validateKey(username, contentName);
+        ContentMeta meta;
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, contentName)) {
+            ContentMeta current = contentMetaIndex.get(username, contentName);
+            if (current != null && current.getEtag().equals(etag)) {
+                return;
+            }
+            appendBaseline(username, contentName);
+            contentMetaIndex.beginWrite(username, contentName);
+            try {
+                long storedSize = storageEngine.put(username, contentName, out -> out.write(stored));
+                meta = contentMetaIndex.update(username, contentName, etag, size, storedSize);
+            } finally {
+                contentMetaIndex.endWrite(username, contentName);
+            }
+            appendVersion(username, contentName, meta);
+            contentCache.invalidate(username, contentName);
+            changeNotifier.publish(username, contentName, meta);
+        }
+        log.debug("replicate put username: {} key: {} size: {}", username, contentName, size);
+    }
+
+    /**
+     * 删除主节点已删除的内容，从节点使用
+     *
+     * @param username    用户名
+     * @param contentName 内容key
+     */
+    public void replicateDelete(String username, String contentName) throws IOException {
+        DeleteContentParam deleteContentParam = new DeleteContentParam();
+        deleteContentParam.setKey(contentName);
+        RestResult<String> result = deleteContent(username, deleteContentParam);
+        if (result.getCode() != HttpStatus.HTTP_OK) {
+            throw new IOException("delete replica failed: " + result.getMessage());
+        }
+    }
+
+    /**
+     * 内容还没有历史版本时，把即将被覆盖的内容记为第一个版本。调用方需持有key锁
+     * <p>
+     * 记录失败时不能覆盖，否则旧内容无法找回
+     */
+    private void appendBaseline(String username, String contentName) {
+        ContentMeta current = contentMetaIndex.get(username, contentName);
+        if (current == null) {
+            return;
+        }
+        try {
+            versionLog.appendBaseline(username, contentName, current.getEtag(), current.getSize(), current.getStoredSize());
         } catch (IOException e) {
-            log.error("download file error", e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * 把刚提交的内容记入历史版本。调用方需持有key锁
+     * <p>
+     * 此时内容已经写入，记录失败只影响历史，不影响本次写入结果
+     */
+    private void appendVersion(String username, String contentName, ContentMeta meta) {
+        try {
+            versionLog.append(username, contentName, meta.getEtag(), meta.getSize(), meta.getStoredSize());
+        } catch (IOException | RuntimeException e) {
+            log.error("append version error username: {} key: {}", username, contentName, e);
+        }
+    }
+
+    /**
+     * 内容与对应的元数据
+     */
+    private record ContentData(ContentMeta meta, String content) {
+    }
+
+    /**
+     * 读取最后一次提交的内容，优先从缓存读取
+     *
+     * @param username    用户名
+     * @param contentName 内容key
+     * @return 内容，不存在时返回null
+     */
+    private ContentData readContent(String username, String contentName) {
+        validateKey(username, contentName);
+        ContentMeta meta = contentMetaIndex.get(username, contentName);
+        if (meta == null) {
+            return null;
+        }
+        String content = contentCache.get(username, contentName, meta);
+        if (content != null) {
+            return new ContentData(meta, content);
+        }
+
+        long ioStart = System.nanoTime();
+        byte[] data;
+        try (ContentMetaIndex.Snapshot snapshot = contentMetaIndex.open(username, contentName)) {
+            if (snapshot == null) {
+                return null;
+            }
+            meta = snapshot.meta();
+            try (InputStream in = contentCodec.open(snapshot.stored())) {
+                data = in.readAllBytes();
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        serviceMetrics.recordIo(ServiceMetrics.IoOp.READ, ioStart);
+        content = new String(data, StandardCharsets.UTF_8);
+        // 只缓存与标记一致的内容，缓存中的旧内容会作为增量同步的基准
+        if (!DigestUtil.sha256Hex(data).equals(meta.getEtag())) {
+            log.warn("content etag mismatch, skip cache username: {} key: {} etag: {}", username, contentName, meta.getEtag());
+            return new ContentData(meta, content);
+        }
+        contentCache.put(username, contentName, meta, content);
+        return new ContentData(meta, content);
+    }
+
+    private static String quoteEtag(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    private static String unquoteEtag(String etag) {
+        if (etag == null) {
+            return null;
+        }
+        etag = etag.trim();
+        if (etag.startsWith("W/")) {
+            etag = etag.substring(2);
+        }
+        if (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            etag = etag.substring(1, etag.length() - 1);
+        }
+        return etag;
+    }
+
+    /**
+     * 校验内容key：必须是用户目录下的规范相对路径，且不能占用服务端保留的目录。
+     * 各存储引擎使用相同的规则，数据可以在引擎之间迁移
+     *
+     * @param username    用户名
+     * @param contentName 内容key
+     */
+    private static void validateKey(String username, String contentName) {
+        if (StrUtil.isBlank(contentName)) {
+            throw new RuntimeException("key不能为空");
+        }
+        Path safeBase = Paths.get(DataService.workPath, "password-xl-data", username);
+        Path target = safeBase.resolve(contentName).normalize();
+        if (!target.startsWith(safeBase) || target.equals(safeBase)) {
+            throw new RuntimeException("非法路径");
+        }
+        String normalizedName = safeBase.relativize(target).toString().replace(File.separatorChar, '/');
+        if (!normalizedName.equals(contentName) || !ContentMetaIndex.isContentKey(contentName)) {
+            throw new RuntimeException("非法路径");
         }
     }
 }
@@ -0,0 +1,357 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.ContentMeta;
+import com.passwordxl.bean.ReplicationBatch;
+import com.passwordxl.bean.ReplicationChange;
+import com.passwordxl.config.ReplicationConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 从节点的数据同步
+ * <p>
+ * 后台虚拟线程循环拉取主节点的变更并按顺序应用，没有新变更时主节点最多等待 poll-timeout 再返回。
+ * 已同步的日志id与序号保存在 {@code password-xl-data/.replication/follower.json}，重启后从该序号继续；
+ * 首次启动、主节点日志重建或落后超过主节点保留的变更时，重新全量同步：拉取本地缺少或标记不同的数据，
+ * 再删除主节点已不存在的内容与图片。应用变更与本地写入走相同的路径，历史版本、缓存与变化通知照常更新。
+ * 主节点不可用时按指数退避重试，期间继续提供读取。
+ */
+@Slf4j
+@Component
+public class ReplicationFollower {
+
+    private static final String STATE_FILE = "follower.json";
+    // 全量同步时单次请求拉取的最大条目数
+    private static final int FETCH_ENTRIES = 500;
+    // 全量同步与拉取数据的请求超时时间
+    private static final Duration FETCH_TIMEOUT = Duration.ofMinutes(5);
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final PasswordXLService passwordXLService;
+    private final ImageStore imageStore;
+    private final TokenService tokenService;
+    private final ContentMetaIndex contentMetaIndex;
+    private final StorageEngine storageEngine;
+    private final AtomicFileWriter atomicFileWriter;
+    private final HttpClient httpClient;
+    private final boolean enabled;
+    private final String leaderUrl;
+    private final String secret;
+    private final Duration pollTimeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // 应用了新的变更时通知等待中的转发请求
+    private final Condition applied = lock.newCondition();
+    private volatile String logId = "";
+    private volatile long appliedSeq;
+    private volatile long leaderSeq;
+    private volatile boolean running;
+    private Thread thread;
+
+    public ReplicationFollower(PasswordXLService passwordXLService, ImageStore imageStore, TokenService tokenService,
+                               ContentMetaIndex contentMetaIndex, StorageEngine storageEngine, AtomicFileWriter atomicFileWriter,
+                               HttpClient replicationHttpClient,
+                               @Value("${password-xl.replication.role:none}") ReplicationConfig.Role role,
+                               @Value("${password-xl.replication.leader-url:}") String leaderUrl,
+                               @Value("${password-xl.replication.secret:}") String secret,
+                               @Value("${password-xl.replication.poll-timeout:30s}") Duration pollTimeout) {
+        this.passwordXLService = passwordXLService;
+        this.imageStore = imageStore;
+        this.tokenService = tokenService;
+        this.contentMetaIndex = contentMetaIndex;
+        this.storageEngine = storageEngine;
+        this.atomicFileWriter = atomicFileWriter;
+        this.httpClient = replicationHttpClient;
+        this.enabled = role == ReplicationConfig.Role.FOLLOWER;
+        this.leaderUrl = StrUtil.removeSuffix(StrUtil.trim(leaderUrl), "/");
+        this.secret = secret;
+        this.pollTimeout = pollTimeout;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    public long getLeaderSeq() {
+        return leaderSeq;
+    }
+
+    /**
+     * 启动同步，数据目录确定后调用
+     */
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (StrUtil.isBlank(leaderUrl) || StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("从节点需要配置 password-xl.replication.leader-url 与 password-xl.replication.secret");
+        }
+        Path stateFile = stateFile();
+        if (Files.exists(stateFile)) {
+            JSONObject state = JSON.parseObject(Files.readString(stateFile, StandardCharsets.UTF_8));
+            logId = state.getString("logId");
+            appliedSeq = state.getLongValue("seq");
+        }
+        log.info("replication follower start leader: {} logId: {} seq: {}", leaderUrl, logId, appliedSeq);
+        running = true;
+        thread = Thread.ofVirtual().name("replication-follower").start(this::run);
+    }
+
+    /**
+     * 等待本节点同步到指定序号，用于转发写请求后保证客户端能读到自己的写入
+     *
+     * @param seq     主节点序号
+     * @param timeout 最长等待时间
+     * @return 是否已同步到该序号
+     */
+    public boolean awaitApplied(long seq, Duration timeout) {
+        long remainNanos = timeout.toNanos();
+        lock.lock();
+        try {
+            while (appliedSeq < seq && remainNanos > 0) {
+                remainNanos = applied.awaitNanos(remainNanos);
+            }
+            return appliedSeq >= seq;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            try {
+                poll();
+                backoff = MIN_BACKOFF_MILLIS;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("replication from leader failed, retry in {}ms: {}", backoff, e.toString());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void poll() throws IOException, InterruptedException {
+        String path = "/replication/changes?logId=" + logId + "&after=" + appliedSeq + "&wait=" + pollTimeout.toMillis();
+        ReplicationBatch batch = call(path, null, pollTimeout.plus(FETCH_TIMEOUT)).to(ReplicationBatch.class);
+        if (batch.isResync()) {
+            resync();
+            return;
+        }
+        for (ReplicationChange change : batch.getChanges()) {
+            apply(change);
+        }
+        if (batch.getLastSeq() != appliedSeq) {
+            log.debug("replication applied seq: {} changes: {}", batch.getLastSeq(), batch.getChanges().size());
+            advance(batch.getLogId(), batch.getLastSeq());
+        }
+    }
+
+    /**
+     * 全量同步
+     */
+    private void resync() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        ReplicationBatch snapshot = call("/replication/snapshot", null, FETCH_TIMEOUT).to(ReplicationBatch.class);
+        log.info("replication resync start logId: {} seq: {} entries: {}", snapshot.getLogId(), snapshot.getLastSeq(), snapshot.getChanges().size());
+        Set<String> remoteKeys = new HashSet<>();
+        List<ReplicationChange> wanted = new ArrayList<>();
+        for (ReplicationChange change : snapshot.getChanges()) {
+            switch (change.getOp()) {
+                case ReplicationService.OP_PUT -> {
+                    remoteKeys.add(change.getUsername() + "/" + change.getKey());
+                    ContentMeta local = contentMetaIndex.get(change.getUsername(), change.getKey());
+                    if (local == null || !local.getEtag().equals(change.getEtag())) {
+                        // 带上本地标记，拉取时主节点内容已与本地一致则不返回数据
+                        change.setEtag(local == null ? null : local.getEtag());
+                        wanted.add(change);
+                    }
+                }
+                case ReplicationService.OP_IMAGE -> {
+                    remoteKeys.add(change.getUsername() + "/" + change.getKey());
+                    // 图片文件写入后不再变化
+                    if (!imageStore.exists(change.getUsername(), change.getKey())) {
+                        wanted.add(change);
+                    }
+                }
+                case ReplicationService.OP_REVOKE -> tokenService.revokeReplica(change.getKey());
+                default -> log.warn("replication unknown op: {}", change.getOp());
+            }
+        }
+
+        long bytes = 0;
+        for (int i = 0; i < wanted.size(); ) {
+            ReplicationBatch request = new ReplicationBatch();
+            request.setChanges(wanted.subList(i, Math.min(i + FETCH_ENTRIES, wanted.size())));
+            List<ReplicationChange> fetched = call("/replication/fetch", JSON.toJSONString(request), FETCH_TIMEOUT)
+                    .getList("changes", ReplicationChange.class);
+            if (fetched == null || fetched.isEmpty()) {
+                throw new IOException("leader returned no data for fetch");
+            }
+            for (ReplicationChange change : fetched) {
+                apply(change);
+                bytes += change.getData() == null ? 0 : change.getData().length();
+            }
+            i += fetched.size();
+        }
+
+        // 删除主节点已不存在的内容与图片
+        int deleted = 0;
+        Set<String> users = new LinkedHashSet<>(storageEngine.users());
+        users.addAll(imageStore.users());
+        for (String username : users) {
+            for (String key : contentMetaIndex.keys(username)) {
+                if (!remoteKeys.contains(username + "/" + key)) {
+                    passwordXLService.replicateDelete(username, key);
+                    deleted++;
+                }
+            }
+            for (String imageKey : imageStore.imageKeys(username)) {
+                if (!remoteKeys.contains(username + "/" + imageKey)) {
+                    imageStore.deleteReplica(username, imageKey);
+                    deleted++;
+                }
+            }
+        }
+        advance(snapshot.getLogId(), snapshot.getLastSeq());
+        log.info("replication resync finished seq: {} fetched: {} bytes: {} deleted: {} cost: {}ms",
+                snapshot.getLastSeq(), wanted.size(), bytes, deleted, System.currentTimeMillis() - start);
+    }
+
+    private void apply(ReplicationChange change) throws IOException {
+        String username = change.getUsername();
+        String key = change.getKey();
+        switch (change.getOp()) {
+            case ReplicationService.OP_PUT -> {
+                // 全量同步时本地已是最新内容，主节点不返回数据
+                if (change.getData() != null) {
+                    passwordXLService.replicatePut(username, key, change.getEtag(), change.getSize(),
+                            Base64.getDecoder().decode(change.getData()));
+                }
+            }
+            case ReplicationService.OP_DELETE -> passwordXLService.replicateDelete(username, key);
+            case ReplicationService.OP_IMAGE -> imageStore.replicate(username, key, Base64.getDecoder().decode(change.getData()));
+            case ReplicationService.OP_IMAGE_DELETE -> imageStore.deleteReplica(username, key);
+            case ReplicationService.OP_REVOKE -> tokenService.revokeReplica(key);
+            default -> log.warn("replication unknown op: {}", change.getOp());
+        }
+    }
+
+    /**
+     * 记录已同步的位置并通知等待中的转发请求
+     */
+    private void advance(String newLogId, long seq) throws IOException {
+        JSONObject state = new JSONObject();
+        state.put("logId", newLogId);
+        state.put("seq", seq);
+        atomicFileWriter.write(stateFile(), state.toJSONString().getBytes(StandardCharsets.UTF_8));
+        lock.lock();
+        try {
+            logId = newLogId;
+            appliedSeq = seq;
+            applied.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求主节点的复制接口
+     *
+     * @param path    路径与参数
+     * @param body    请求体，为null时使用GET
+     * @param timeout 超时时间
+     * @return 响应中的data
+     */
+    private JSONObject call(String path, String body, Duration timeout) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(leaderUrl + path))
+                .timeout(timeout)
+                .header(ReplicationConfig.SECRET_HEADER, secret)
+                // 内容多为文本，由主节点按响应压缩配置压缩传输
+                .header("Accept-Encoding", "gzip");
+        if (body == null) {
+            builder.GET();
+        } else {
+            builder.header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+        }
+        HttpResponse<byte[]> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("leader http status: " + response.statusCode());
+        }
+        response.headers().firstValueAsLong(ReplicationConfig.SEQ_HEADER)
+                .ifPresent(seq -> leaderSeq = seq);
+        byte[] responseBody = response.body();
+        if ("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(null))) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(responseBody))) {
+                responseBody = in.readAllBytes();
+            }
+        }
+        JSONObject result = JSON.parseObject(responseBody);
+        if (result == null || result.getIntValue("code") != 200) {
+            throw new IOException("leader error: " + (result == null ? null : result.getString("message")));
+        }
+        JSONObject data = result.getJSONObject("data");
+        return data == null ? new JSONObject() : data;
+    }
+
+    private static Path stateFile() {
+        return Paths.get(DataService.workPath, "password-xl-data", ".replication", STATE_FILE);
+    }
+}
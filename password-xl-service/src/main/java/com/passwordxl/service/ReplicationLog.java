@@ -0,0 +1,336 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.IdUtil;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.config.ReplicationConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 主节点的变更日志
+ * <p>
+ * 内容写入与删除、图片上传与清理、token吊销时按提交顺序分配递增序号，从节点按序号拉取。
+ * 日志只记录发生变化的用户与key，不保存数据：从节点拉取时读取该key的当前状态，
+ * 同一个key的多次变更只需传输最后的状态，重复应用也不会出错。
+ * <p>
+ * 变更在修改数据之前写入 {@code password-xl-data/.replication/changes.log} 并按持久化级别刷盘，
+ * 进程在两者之间退出时最多多出一条没有实际变化的记录，不会遗漏变更；
+ * 修改完成后变更才对从节点可见，避免从节点读到修改之前的状态后不再重新读取。
+ * 内存与文件中只保留最近 log-retention 条，落后更多的从节点需要重新全量同步。
+ * 日志文件首行为日志id，日志文件丢失重建后id改变，从节点据此发现序号不再连续。
+ */
+@Slf4j
+@Component
+public class ReplicationLog {
+
+    /**
+     * 变更类型
+     */
+    public enum Kind {
+        // 内容，key为内容key
+        CONTENT,
+        // 图片，key为用户目录下的图片路径
+        IMAGE,
+        // token吊销，key为token id
+        REVOKE
+    }
+
+    /**
+     * 一条变更
+     *
+     * @param seq      序号
+     * @param kind     类型
+     * @param username 用户名
+     * @param key      变化的key
+     */
+    public record Entry(long seq, Kind kind, String username, String key) {
+    }
+
+    /**
+     * 已记录的变更，数据修改完成后关闭，之后变更才对从节点可见
+     */
+    public interface Change extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final String LOG_FILE = "changes.log";
+    private static final Change NOOP = () -> {
+    };
+
+    private final AtomicFileWriter atomicFileWriter;
+    private final boolean enabled;
+    private final int retention;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // 有新的变更可见时通知等待中的拉取
+    private final Condition published = lock.newCondition();
+    // 最近的变更，按序号连续排列
+    private final List<Entry> entries = new ArrayList<>();
+    // 已记录但数据尚未修改完成的序号
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    private String logId;
+    private long lastSeq;
+    private FileChannel channel;
+    private int fileEntries;
+
+    public ReplicationLog(AtomicFileWriter atomicFileWriter,
+                          @Value("${password-xl.replication.role:none}") ReplicationConfig.Role role,
+                          @Value("${password-xl.replication.log-retention:100000}") int retention) {
+        this.atomicFileWriter = atomicFileWriter;
+        this.enabled = role == ReplicationConfig.Role.LEADER;
+        this.retention = Math.max(retention, 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 在修改数据之前记录变更，调用方需持有对应的key锁，保证同一个key的变更顺序与提交顺序一致
+     *
+     * @param kind     类型
+     * @param username 用户名
+     * @param key      变化的key
+     * @return 数据修改完成（无论成功与否）后关闭
+     * @throws IOException 写入日志失败，此时不能修改数据，否则从节点无法同步这次修改
+     */
+    public Change record(Kind kind, String username, String key) throws IOException {
+        if (!enabled) {
+            return NOOP;
+        }
+        long seq;
+        lock.lock();
+        try {
+            ensureOpen();
+            seq = lastSeq + 1;
+            Entry entry = new Entry(seq, kind, username, key);
+            write(channel, entry);
+            if (atomicFileWriter.getDurability() != AtomicFileWriter.Durability.NONE) {
+                channel.force(false);
+            }
+            lastSeq = seq;
+            entries.add(entry);
+            inFlight.add(seq);
+            fileEntries++;
+            trim();
+        } finally {
+            lock.unlock();
+        }
+        return () -> publish(seq);
+    }
+
+    /**
+     * 读取指定序号之后的变更，没有新变更时最多等待一段时间
+     *
+     * @param logId      从节点已同步的日志id
+     * @param after      从节点已同步的序号
+     * @param limit      最多返回的条数
+     * @param waitMillis 最长等待时间
+     * @return 变更列表，日志id不一致或变更已被清除、需要重新全量同步时返回null
+     */
+    public List<Entry> read(String logId, long after, int limit, long waitMillis) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            ensureOpen();
+            long firstSeq = entries.isEmpty() ? lastSeq + 1 : entries.getFirst().seq();
+            if (!this.logId.equals(logId) || after > lastSeq || after < firstSeq - 1) {
+                return null;
+            }
+            long remainNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            while (visibleSeq() <= after && remainNanos > 0) {
+                remainNanos = published.awaitNanos(remainNanos);
+            }
+            long visible = visibleSeq();
+            // 等待期间可能发生清理
+            firstSeq = entries.isEmpty() ? lastSeq + 1 : entries.getFirst().seq();
+            if (after < firstSeq - 1) {
+                return null;
+            }
+            int from = (int) (after + 1 - firstSeq);
+            int to = (int) Math.min(visible + 1 - firstSeq, (long) from + limit);
+            return from >= to ? List.of() : new ArrayList<>(entries.subList(from, to));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 日志id
+     */
+    public String logId() throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            return logId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 最新的序号，包含数据尚未修改完成的变更
+     */
+    public long lastSeq() throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            return lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从节点可以读取到的序号，该序号及之前的变更都已修改完成
+     */
+    public long publishedSeq() throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            return visibleSeq();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish(long seq) {
+        lock.lock();
+        try {
+            inFlight.remove(seq);
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long visibleSeq() {
+        return inFlight.isEmpty() ? lastSeq : inFlight.first() - 1;
+    }
+
+    /**
+     * 首次使用时加载日志文件，数据目录在启动完成后才确定。调用方需持有锁
+     */
+    private void ensureOpen() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Path file = logFile();
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            logId = lines.isEmpty() ? null : lines.getFirst().trim();
+            for (int i = 1; i < lines.size(); i++) {
+                Entry entry = parse(lines.get(i));
+                // 写入中断的最后一行无法解析，丢弃即可：对应的数据尚未修改。清理过的文件从保留的第一条开始
+                if (entry != null && (entries.isEmpty() || entry.seq() == lastSeq + 1)) {
+                    entries.add(entry);
+                    lastSeq = entry.seq();
+                }
+            }
+        }
+        if (logId == null || logId.isEmpty()) {
+            logId = IdUtil.fastSimpleUUID();
+            entries.clear();
+            lastSeq = 0;
+        }
+        if (entries.size() > retention) {
+            entries.subList(0, entries.size() - retention).clear();
+        }
+        // 重写一次文件，去掉不完整的行，之后只追加
+        rewrite();
+        log.info("open replication log id: {} seq: {} entries: {}", logId, lastSeq, entries.size());
+    }
+
+    /**
+     * 超出保留条数时清理内存，文件达到两倍保留条数时重写，调用方需持有锁
+     */
+    private void trim() throws IOException {
+        if (entries.size() > retention + retention / 4) {
+            entries.subList(0, entries.size() - retention).clear();
+        }
+        if (fileEntries >= 2 * retention) {
+            rewrite();
+        }
+    }
+
+    private void rewrite() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Path file = logFile();
+        atomicFileWriter.write(file, out -> {
+            writeLine(out, logId);
+            for (Entry entry : entries) {
+                write(out, entry);
+            }
+        });
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileEntries = entries.size();
+    }
+
+    private static void write(FileChannel out, Entry entry) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("seq", entry.seq());
+        json.put("kind", entry.kind().name());
+        json.put("username", entry.username());
+        json.put("key", entry.key());
+        writeLine(out, json.toJSONString());
+    }
+
+    private static void writeLine(FileChannel out, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static Entry parse(String line) {
+        try {
+            JSONObject json = JSON.parseObject(line);
+            if (json == null) {
+                return null;
+            }
+            return new Entry(json.getLongValue("seq"), Kind.valueOf(json.getString("kind")),
+                    json.getString("username"), json.getString("key"));
+        } catch (JSONException | IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    private static Path logFile() {
+        return Paths.get(DataService.workPath, "password-xl-data", ".replication", LOG_FILE);
+    }
+}
@@ -0,0 +1,217 @@
+package com.passwordxl.service;
+
+import com.passwordxl.bean.ContentMeta;
+import com.passwordxl.bean.ReplicationBatch;
+import com.passwordxl.bean.ReplicationChange;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 主节点的复制数据来源
+ * <p>
+ * 从节点按序号拉取变更日志，每条变更在返回时读取对应key的当前状态：内容存在时返回存储引擎中的原始数据，
+ * 不存在时返回删除。同一批中同一个key只返回最后一条，单批数据量超过 batch-size 时截断，剩余的下次拉取。
+ * <p>
+ * 全量同步时先返回当前序号与全部内容key、图片路径的列表，从节点再分批拉取本地缺少或标记不同的数据。
+ */
+@Slf4j
+@Service
+public class ReplicationService {
+
+    public static final String OP_PUT = "put";
+    public static final String OP_DELETE = "delete";
+    public static final String OP_IMAGE = "image";
+    public static final String OP_IMAGE_DELETE = "image-delete";
+    public static final String OP_REVOKE = "revoke";
+
+    // 单次拉取的最大变更条数
+    private static final int MAX_ENTRIES = 1000;
+    // 拉取变更时的最长等待时间，避免长时间占用请求线程
+    private static final long MAX_WAIT_MILLIS = 60_000;
+
+    private final ReplicationLog replicationLog;
+    private final StorageEngine storageEngine;
+    private final ContentMetaIndex contentMetaIndex;
+    private final ContentLockManager contentLockManager;
+    private final ImageStore imageStore;
+    private final TokenService tokenService;
+    private final long batchBytes;
+
+    public ReplicationService(ReplicationLog replicationLog, StorageEngine storageEngine, ContentMetaIndex contentMetaIndex,
+                              ContentLockManager contentLockManager, ImageStore imageStore, TokenService tokenService,
+                              @Value("${password-xl.replication.batch-size:8MB}") DataSize batchSize) {
+        this.replicationLog = replicationLog;
+        this.storageEngine = storageEngine;
+        this.contentMetaIndex = contentMetaIndex;
+        this.contentLockManager = contentLockManager;
+        this.imageStore = imageStore;
+        this.tokenService = tokenService;
+        this.batchBytes = batchSize.toBytes();
+    }
+
+    public boolean isLeader() {
+        return replicationLog.isEnabled();
+    }
+
+    /**
+     * 主节点最新的序号
+     */
+    public long lastSeq() throws IOException {
+        return replicationLog.lastSeq();
+    }
+
+    /**
+     * 拉取指定序号之后的变更
+     *
+     * @param logId      从节点已同步的日志id
+     * @param after      从节点已同步的序号
+     * @param waitMillis 没有新变更时的最长等待时间
+     * @return 变更，需要全量同步时只设置 resync
+     */
+    public ReplicationBatch changes(String logId, long after, long waitMillis) throws IOException, InterruptedException {
+        ReplicationBatch batch = new ReplicationBatch();
+        batch.setLogId(replicationLog.logId());
+        List<ReplicationLog.Entry> entries = replicationLog.read(logId, after, MAX_ENTRIES, Math.min(waitMillis, MAX_WAIT_MILLIS));
+        if (entries == null) {
+            log.info("replication resync required logId: {} after: {}", logId, after);
+            batch.setResync(true);
+            return batch;
+        }
+        // 同一个key只需返回最后一条变更时的状态
+        Map<String, Long> lastSeqs = new HashMap<>();
+        for (ReplicationLog.Entry entry : entries) {
+            lastSeqs.put(entryKey(entry), entry.seq());
+        }
+        long lastSeq = after;
+        long bytes = 0;
+        for (ReplicationLog.Entry entry : entries) {
+            if (bytes >= batchBytes) {
+                break;
+            }
+            if (lastSeqs.get(entryKey(entry)) == entry.seq()) {
+                ReplicationChange change = resolve(entry.kind(), entry.username(), entry.key(), null);
+                batch.getChanges().add(change);
+                bytes += change.getData() == null ? 0 : change.getData().length();
+            }
+            lastSeq = entry.seq();
+        }
+        batch.setLastSeq(lastSeq);
+        return batch;
+    }
+
+    /**
+     * 全量同步的列表，不含数据
+     *
+     * @return 当前序号与全部内容、图片及已吊销的token
+     */
+    public ReplicationBatch snapshot() throws IOException {
+        ReplicationBatch batch = new ReplicationBatch();
+        batch.setLogId(replicationLog.logId());
+        // 先取序号再列出数据，之后的变更从节点会再拉取一次
+        batch.setLastSeq(replicationLog.publishedSeq());
+        Set<String> users = new LinkedHashSet<>(storageEngine.users());
+        users.addAll(imageStore.users());
+        for (String username : users) {
+            for (String key : contentMetaIndex.keys(username)) {
+                ContentMeta meta = contentMetaIndex.get(username, key);
+                if (meta != null) {
+                    batch.getChanges().add(change(OP_PUT, username, key, meta.getEtag()));
+                }
+            }
+            for (String imageKey : imageStore.imageKeys(username)) {
+                batch.getChanges().add(change(OP_IMAGE, username, imageKey, null));
+            }
+        }
+        for (String id : tokenService.revokedIds()) {
+            batch.getChanges().add(change(OP_REVOKE, null, id, null));
+        }
+        log.info("replication snapshot seq: {} users: {} entries: {}", batch.getLastSeq(), users.size(), batch.getChanges().size());
+        return batch;
+    }
+
+    /**
+     * 拉取全量同步列表中的数据，数据量超过 batch-size 时只返回前面一部分
+     *
+     * @param requests 要拉取的内容或图片，内容的etag为从节点本地的内容标记
+     * @return 与请求顺序一致的当前状态，至少包含一条
+     */
+    public List<ReplicationChange> fetch(List<ReplicationChange> requests) throws IOException {
+        List<ReplicationChange> changes = new ArrayList<>();
+        long bytes = 0;
+        for (ReplicationChange request : requests) {
+            if (bytes >= batchBytes) {
+                break;
+            }
+            ReplicationLog.Kind kind = switch (request.getOp()) {
+                case OP_PUT, OP_DELETE -> ReplicationLog.Kind.CONTENT;
+                case OP_IMAGE, OP_IMAGE_DELETE -> ReplicationLog.Kind.IMAGE;
+                default -> throw new IllegalArgumentException("不支持的操作: " + request.getOp());
+            };
+            ReplicationChange change = resolve(kind, request.getUsername(), request.getKey(), request.getEtag());
+            changes.add(change);
+            bytes += change.getData() == null ? 0 : change.getData().length();
+        }
+        return changes;
+    }
+
+    /**
+     * 读取key的当前状态，在key锁内读取保证数据与标记一致
+     *
+     * @param knownEtag 从节点已有的内容标记，与当前一致时不返回数据
+     */
+    private ReplicationChange resolve(ReplicationLog.Kind kind, String username, String key, String knownEtag) throws IOException {
+        if (kind == ReplicationLog.Kind.REVOKE) {
+            return change(OP_REVOKE, username, key, null);
+        }
+        try (ContentLockManager.Handle ignored = contentLockManager.lockKey(username, key)) {
+            if (kind == ReplicationLog.Kind.IMAGE) {
+                byte[] data = imageStore.read(username, key);
+                if (data == null) {
+                    return change(OP_IMAGE_DELETE, username, key, null);
+                }
+                ReplicationChange change = change(OP_IMAGE, username, key, null);
+                change.setData(Base64.getEncoder().encodeToString(data));
+                return change;
+            }
+            ContentMeta meta = contentMetaIndex.get(username, key);
+            if (meta == null) {
+                return change(OP_DELETE, username, key, null);
+            }
+            ReplicationChange change = change(OP_PUT, username, key, meta.getEtag());
+            change.setSize(meta.getSize());
+            if (meta.getEtag().equals(knownEtag)) {
+                return change;
+            }
+            byte[] stored = storageEngine.get(username, key);
+            if (stored == null) {
+                return change(OP_DELETE, username, key, null);
+            }
+            change.setData(Base64.getEncoder().encodeToString(stored));
+            return change;
+        }
+    }
+
+    private static ReplicationChange change(String op, String username, String key, String etag) {
+        ReplicationChange change = new ReplicationChange();
+        change.setOp(op);
+        change.setUsername(username);
+        change.setKey(key);
+        change.setEtag(etag);
+        return change;
+    }
+
+    private static String entryKey(ReplicationLog.Entry entry) {
+        return entry.kind() + "/" + entry.username() + "/" + entry.key();
+    }
+}
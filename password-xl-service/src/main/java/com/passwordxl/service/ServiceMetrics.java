@@ -0,0 +1,165 @@
+package com.passwordxl.service;
+
+import com.passwordxl.config.DropCountingAsyncAppender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 业务指标
+ * <p>
+ * 接口延迟由 Spring Boot 的 http.server.requests 按接口统计，这里补充登录、内容读写字节数、文件读写耗时、活跃用户与缓存指标。
+ * 计数器与计时器在首次使用时注册并缓存，热路径上只做查表与累加，不产生额外对象。
+ */
+@Component
+public class ServiceMetrics {
+
+    /**
+     * 文件读写操作
+     */
+    public enum IoOp {
+        READ, WRITE, DELETE
+    }
+
+    // 最近一段时间内有请求的用户视为活跃用户
+    private static final long ACTIVE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(5);
+    // 同一用户的最近访问时间只按秒更新，减少写竞争
+    private static final long SEEN_RESOLUTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MeterRegistry registry;
+    private final Counter loginSuccess;
+    private final Counter loginFailure;
+    private final Counter authFailure;
+    private final Timer[] ioTimers = new Timer[IoOp.values().length];
+    private final Map<String, Counter> bytesWritten = new ConcurrentHashMap<>();
+    private final Map<String, Counter> bytesRead = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> lastSeen = new ConcurrentHashMap<>();
+
+    public ServiceMetrics(MeterRegistry registry, ContentCache contentCache, ChangeNotifier changeNotifier,
+                          ContentLockManager contentLockManager) {
+        this.registry = registry;
+        this.loginSuccess = Counter.builder("password-xl.login").tag("result", "success")
+                .description("登录成功次数").register(registry);
+        this.loginFailure = Counter.builder("password-xl.login").tag("result", "failure")
+                .description("登录失败次数").register(registry);
+        this.authFailure = Counter.builder("password-xl.auth.failures")
+                .description("未登录或token无效的请求数").register(registry);
+        for (IoOp op : IoOp.values()) {
+            ioTimers[op.ordinal()] = Timer.builder("password-xl.storage.io")
+                    .tag("op", op.name().toLowerCase())
+                    .description("内容文件读写耗时")
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(50_000))
+                    .maximumExpectedValue(Duration.ofSeconds(5))
+                    .register(registry);
+        }
+
+        Gauge.builder("password-xl.users.active", this, ServiceMetrics::activeUsers)
+                .description("最近5分钟有请求的用户数").register(registry);
+        Gauge.builder("password-xl.users.configured", () -> DataService.users.size())
+                .description("配置的用户数").register(registry);
+        Gauge.builder("password-xl.notify.subscribers", changeNotifier, ChangeNotifier::getSubscriberCount)
+                .description("变化通知连接数").register(registry);
+        Gauge.builder("password-xl.lock.keys", contentLockManager, ContentLockManager::activeKeyLocks)
+                .description("持有或等待中的key锁数量").register(registry);
+
+        FunctionCounter.builder("password-xl.cache.requests", contentCache, ContentCache::getHits)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("password-xl.cache.requests", contentCache, ContentCache::getMisses)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("password-xl.cache.evictions", contentCache, ContentCache::getEvictions)
+                .register(registry);
+        Gauge.builder("password-xl.cache.size", contentCache, ContentCache::getCurrentBytes)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("password-xl.cache.max", contentCache, ContentCache::getMaxBytes)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("password-xl.cache.entries", contentCache, ContentCache::getCount)
+                .register(registry);
+        FunctionCounter.builder("password-xl.logging.dropped", DropCountingAsyncAppender.class, c -> DropCountingAsyncAppender.getDropped())
+                .description("异步日志队列满时丢弃的日志数").register(registry);
+    }
+
+    public void loginSucceeded() {
+        loginSuccess.increment();
+    }
+
+    public void loginFailed() {
+        loginFailure.increment();
+    }
+
+    public void authFailed() {
+        authFailure.increment();
+    }
+
+    /**
+     * 记录用户的一次请求，用于统计活跃用户
+     *
+     * @param username 用户名
+     */
+    public void userSeen(String username) {
+        long now = System.nanoTime();
+        AtomicLong seen = lastSeen.get(username);
+        if (seen == null) {
+            lastSeen.putIfAbsent(username, new AtomicLong(now));
+        } else if (now - seen.get() > SEEN_RESOLUTION_NANOS) {
+            seen.set(now);
+        }
+    }
+
+    /**
+     * 记录写入的内容字节数
+     *
+     * @param username 用户名
+     * @param bytes    字节数
+     */
+    public void contentWritten(String username, long bytes) {
+        counter(bytesWritten, "password-xl.content.written", username).increment(bytes);
+    }
+
+    /**
+     * 记录读取的内容字节数
+     *
+     * @param username 用户名
+     * @param bytes    字节数
+     */
+    public void contentRead(String username, long bytes) {
+        counter(bytesRead, "password-xl.content.read", username).increment(bytes);
+    }
+
+    /**
+     * 记录一次文件读写耗时
+     *
+     * @param op        操作
+     * @param startNano 开始时的 {@link System#nanoTime()}
+     */
+    public void recordIo(IoOp op, long startNano) {
+        ioTimers[op.ordinal()].record(System.nanoTime() - startNano, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter counter(Map<String, Counter> counters, String name, String username) {
+        Counter counter = counters.get(username);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(username, k -> Counter.builder(name)
+                    .tag("user", k)
+                    .baseUnit("bytes")
+                    .register(registry));
+        }
+        return counter;
+    }
+
+    private double activeUsers() {
+        long now = System.nanoTime();
+        // 清理长时间不活跃的用户，避免已删除的用户一直保留
+        lastSeen.values().removeIf(seen -> now - seen.get() > ACTIVE_WINDOW_NANOS * 2);
+        return lastSeen.values().stream().filter(seen -> now - seen.get() <= ACTIVE_WINDOW_NANOS).count();
+    }
+}
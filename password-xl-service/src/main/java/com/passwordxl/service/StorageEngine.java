@@ -0,0 +1,147 @@
+package com.passwordxl.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 内容存储引擎
+ * <p>
+ * 按用户与key保存编码后的内容字节，压缩由 {@link ContentCodec} 在写入前完成，引擎不关心内容格式。
+ * 同一个key的写入与删除由调用方持有key锁串行执行；引擎需保证单次写入的原子性，
+ * 读取到的总是某一次完整写入的数据，已打开的读取不受之后写入的影响。
+ * <p>
+ * 流式接口不保证不占用内存：{@link FileStorageEngine} 直接读写文件；{@link PageFileStorageEngine}
+ * 在 {@link #prepare} 与 {@link #stream} 中把整条数据保存在内存中，单条数据大小受堆内存限制。
+ * <p>
+ * 图片与历史版本不经过存储引擎，仍保存在用户数据目录下。
+ */
+public interface StorageEngine extends AutoCloseable {
+
+    /**
+     * 条目信息
+     *
+     * @param storedSize   存储字节数
+     * @param lastModified 最后修改时间
+     */
+    record Stat(long storedSize, long lastModified) {
+    }
+
+    /**
+     * 写出待保存的数据
+     */
+    @FunctionalInterface
+    interface StoreWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 已写入但尚未生效的数据，{@link #commit} 后生效，未提交时关闭会丢弃数据
+     */
+    interface Pending extends AutoCloseable {
+
+        /**
+         * 存储字节数
+         */
+        long storedSize();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * 读取数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 数据，不存在时返回null
+     */
+    byte[] get(String username, String key) throws IOException;
+
+    /**
+     * 打开数据流
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 支持 mark/reset 的数据流，不存在时返回null
+     */
+    InputStream stream(String username, String key) throws IOException;
+
+    /**
+     * 原子写入数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param writer   写出数据的逻辑
+     * @return 存储字节数
+     */
+    default long put(String username, String key, StoreWriter writer) throws IOException {
+        try (Pending pending = prepare(username, key, writer)) {
+            commit(pending);
+            return pending.storedSize();
+        }
+    }
+
+    /**
+     * 写入数据但暂不生效，用于多个key一起提交的场景
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param writer   写出数据的逻辑
+     * @return 待提交的数据
+     */
+    Pending prepare(String username, String key, StoreWriter writer) throws IOException;
+
+    /**
+     * 提交 {@link #prepare} 写入的数据，替换原有数据
+     *
+     * @param pending 待提交的数据
+     */
+    void commit(Pending pending) throws IOException;
+
+    /**
+     * 删除数据
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 数据存在并被删除时返回true
+     */
+    boolean delete(String username, String key) throws IOException;
+
+    /**
+     * 获取条目信息
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 条目信息，不存在时返回null
+     */
+    Stat stat(String username, String key) throws IOException;
+
+    /**
+     * 获取用户的全部key
+     *
+     * @param username 用户名
+     * @return key列表
+     */
+    List<String> list(String username) throws IOException;
+
+    /**
+     * 获取有数据的用户
+     *
+     * @return 用户名列表
+     */
+    List<String> users() throws IOException;
+
+    /**
+     * 用户内容全部删除后清理残留的存储结构，调用方需持有用户锁
+     *
+     * @param username 用户名
+     */
+    default void cleanup(String username) throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,76 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.StrUtil;
+import com.passwordxl.config.StorageConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 存储引擎之间的数据迁移
+ * <p>
+ * 配置 password-xl.storage.migrate-from 为原引擎后启动，在加载用户配置、接受登录之前把原引擎中的全部内容
+ * 复制到当前引擎。当前引擎中已存在的key不会被覆盖，因此重复启动不会用旧数据覆盖迁移后写入的内容；
+ * 原引擎的数据保持不变，确认无误后可以手动删除并移除该配置。
+ */
+@Slf4j
+@Component
+public class StorageMigration {
+
+    private final StorageEngine storageEngine;
+    private final AtomicFileWriter atomicFileWriter;
+    private final StorageConfig.Engine engine;
+    private final String migrateFrom;
+
+    public StorageMigration(StorageEngine storageEngine, AtomicFileWriter atomicFileWriter,
+                            @Value("${password-xl.storage.engine:file}") StorageConfig.Engine engine,
+                            @Value("${password-xl.storage.migrate-from:}") String migrateFrom) {
+        this.storageEngine = storageEngine;
+        this.atomicFileWriter = atomicFileWriter;
+        this.engine = engine;
+        this.migrateFrom = migrateFrom;
+    }
+
+    /**
+     * 配置了原引擎时执行迁移
+     *
+     * @throws IOException 读取或写入失败，迁移中断，已复制的内容保留
+     */
+    public void migrateIfConfigured() throws IOException {
+        if (StrUtil.isBlank(migrateFrom)) {
+            return;
+        }
+        StorageConfig.Engine source = StorageConfig.Engine.valueOf(migrateFrom.trim().toUpperCase().replace('-', '_'));
+        if (source == engine) {
+            log.warn("skip storage migration, source engine is the current engine: {}", engine);
+            return;
+        }
+        log.info("storage migration start from: {} to: {}", source, engine);
+        long start = System.currentTimeMillis();
+        int copied = 0;
+        int skipped = 0;
+        long bytes = 0;
+        try (StorageEngine from = StorageConfig.create(source, atomicFileWriter)) {
+            for (String username : from.users()) {
+                for (String key : from.list(username)) {
+                    if (storageEngine.stat(username, key) != null) {
+                        skipped++;
+                        continue;
+                    }
+                    byte[] data = from.get(username, key);
+                    if (data == null) {
+                        continue;
+                    }
+                    // 按存储格式原样复制，压缩的内容不需要解压
+                    storageEngine.put(username, key, out -> out.write(data));
+                    copied++;
+                    bytes += data.length;
+                }
+            }
+        }
+        log.info("storage migration finished copied: {} skipped: {} bytes: {} cost: {}ms",
+                copied, skipped, bytes, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,393 @@
+package com.passwordxl.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 图片缩略图缓存
+ * <p>
+ * 按请求的尺寸（取不小于它的预设尺寸，避免任意尺寸占满缓存）生成等比缩小的图片，保存在原图旁边，
+ * 文件名为 .原图名.w尺寸.扩展名，以.开头不会被当作图片同步、备份或清理。jpg 输出 jpg，png 与 gif 输出 png。
+ * 解码时按整数倍降采样，大图不会完整解码到内存；同时生成的数量不超过 concurrency，同一个缩略图只生成一次，
+ * 其他请求等待生成结果。原图不大于请求尺寸或无法解码时直接使用原图。
+ * <p>
+ * 缩略图总大小受磁盘预算限制，超出时删除最久未访问的缩略图；原图删除后留下的缩略图不再被访问，随之淘汰。
+ */
+@Slf4j
+@Component
+public class ThumbnailCache {
+
+    // 支持缩放的原图格式
+    public static final Set<String> FORMATS = Set.of("jpg", "jpeg", "png", "gif");
+    private static final Pattern VARIANT_NAME = Pattern.compile("^\\..+\\.w\\d+\\.(jpg|png)$");
+    private static final String TEMP_PREFIX = ".thumb";
+
+    private final AtomicFileWriter atomicFileWriter;
+    private final int[] sizes;
+    private final long maxBytes;
+    private final float quality;
+    private final Semaphore permits;
+
+    // 按访问顺序排列，头部为最久未访问；首次使用时扫描已有的缩略图
+    private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Path, CompletableFuture<Path>> generating = new ConcurrentHashMap<>();
+    private boolean loaded;
+    private volatile long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // 等待其他请求正在生成的同一缩略图，不计入命中或未命中
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ThumbnailCache(AtomicFileWriter atomicFileWriter,
+                          @Value("${password-xl.thumbnail.sizes:64,128,256,512,1024}") int[] sizes,
+                          @Value("${password-xl.thumbnail.max-size:512MB}") DataSize maxSize,
+                          @Value("${password-xl.thumbnail.quality:0.85}") float quality,
+                          @Value("${password-xl.thumbnail.concurrency:0}") int concurrency) {
+        this.atomicFileWriter = atomicFileWriter;
+        this.sizes = Arrays.stream(sizes).filter(size -> size > 0).sorted().distinct().toArray();
+        this.maxBytes = maxSize.toBytes();
+        this.quality = quality;
+        this.permits = new Semaphore(concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors());
+        // 编码结果直接写入内存，不使用临时文件
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * 获取缩略图
+     *
+     * @param original 原图文件
+     * @param extName  原图扩展名
+     * @param size     请求的最大边长
+     * @return 缩略图文件，不需要或无法缩放时返回原图
+     */
+    public Path get(Path original, String extName, int size) {
+        String format = extName.toLowerCase();
+        if (!FORMATS.contains(format) || sizes.length == 0 || maxBytes <= 0) {
+            return original;
+        }
+        int target = sizes[sizes.length - 1];
+        for (int preset : sizes) {
+            if (preset >= size) {
+                target = preset;
+                break;
+            }
+        }
+        String outputFormat = format.startsWith("jp") ? "jpg" : "png";
+        Path variant = original.resolveSibling("." + original.getFileName() + ".w" + target + "." + outputFormat);
+        if (touch(variant)) {
+            hits.increment();
+            return variant;
+        }
+
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> running = generating.putIfAbsent(variant, future);
+        if (running != null) {
+            coalesced.increment();
+            return running.join();
+        }
+        try {
+            // 等待期间可能已由其他请求生成
+            Path result = touch(variant) ? variant : generate(original, variant, target, outputFormat);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            generating.remove(variant, future);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 生成缩略图，失败时返回原图
+     */
+    private Path generate(Path original, Path variant, int target, String outputFormat) {
+        misses.increment();
+        long start = System.currentTimeMillis();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return original;
+        }
+        try {
+            BufferedImage image = read(original, target);
+            if (image == null) {
+                return original;
+            }
+            write(image, variant, outputFormat);
+            long size = Files.size(variant);
+            add(variant, size);
+            log.debug("generate thumbnail: {} size: {} bytes: {} cost: {}ms", variant.getFileName(), target, size,
+                    System.currentTimeMillis() - start);
+            return variant;
+        } catch (IOException | RuntimeException | LinkageError e) {
+            // 图片损坏，或运行环境不支持图像处理（例如未包含AWT的原生镜像）
+            log.warn("generate thumbnail failed, use original: {} error: {}", original.getFileName(), e.toString());
+            return original;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 解码并缩放原图
+     *
+     * @return 缩放后的图片，原图不大于目标尺寸或无法解码时返回null
+     */
+    private static BufferedImage read(Path original, int target) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int longest = Math.max(width, height);
+                if (longest <= target) {
+                    return null;
+                }
+                // 解码时降采样到不小于目标尺寸的2倍，再平滑缩小
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, longest / (target * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                double scale = (double) target / longest;
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+                return scale(decoded, targetWidth, targetHeight);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 每次最多缩小一半，多次双线性插值的效果接近高质量缩放，耗时远小于一次性的区域平均
+     */
+    private static BufferedImage scale(BufferedImage source, int targetWidth, int targetHeight) {
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private void write(BufferedImage image, Path variant, String outputFormat) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(outputFormat).next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if ("jpg".equals(outputFormat)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            Path temp = atomicFileWriter.writeTemp(variant.getParent(), TEMP_PREFIX, channel -> {
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(Channels.newOutputStream(channel))) {
+                    writer.setOutput(out);
+                    writer.write(null, new IIOImage(image, null, null), param);
+                }
+            });
+            atomicFileWriter.commit(temp, variant);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 缩略图已缓存时更新访问顺序
+     */
+    private boolean touch(Path variant) {
+        lock.lock();
+        try {
+            load();
+            if (entries.get(variant) == null) {
+                return false;
+            }
+            if (Files.isRegularFile(variant)) {
+                return true;
+            }
+            // 在外部被删除
+            currentBytes -= entries.remove(variant);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录新生成的缩略图，超出预算时删除最久未访问的缩略图
+     */
+    private void add(Path variant, long size) {
+        lock.lock();
+        try {
+            load();
+            Long old = entries.put(variant, size);
+            currentBytes += size - (old == null ? 0 : old);
+            Iterator<Map.Entry<Path, Long>> iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<Path, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(variant)) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(eldest.getKey());
+                } catch (IOException e) {
+                    log.warn("delete thumbnail error: {}", eldest.getKey(), e);
+                    continue;
+                }
+                currentBytes -= eldest.getValue();
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 扫描已有的缩略图，按修改时间排列访问顺序，并清理中断生成留下的临时文件。调用方需持有锁
+     * <p>
+     * 数据目录在启动完成后才确定，因此在首次使用时扫描
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        Path root = Paths.get(DataService.workPath, "password-xl-data");
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        record Found(Path path, long size, long lastModified) {
+        }
+        List<Found> found;
+        try (Stream<Path> users = Files.list(root)) {
+            found = users.map(user -> user.resolve("images"))
+                    .filter(Files::isDirectory)
+                    .flatMap(ThumbnailCache::walk)
+                    .map(path -> {
+                        String name = path.getFileName().toString();
+                        try {
+                            if (name.startsWith(TEMP_PREFIX) && name.endsWith(".tmp")) {
+                                Files.deleteIfExists(path);
+                                return null;
+                            }
+                            if (!VARIANT_NAME.matcher(name).matches()) {
+                                return null;
+                            }
+                            return new Found(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+                        } catch (IOException e) {
+                            return null;
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .sorted((a, b) -> Long.compare(a.lastModified(), b.lastModified()))
+                    .toList();
+        } catch (IOException e) {
+            log.warn("scan thumbnails error", e);
+            return;
+        }
+        for (Found item : found) {
+            entries.put(item.path(), item.size());
+            currentBytes += item.size();
+        }
+        log.info("load thumbnails count: {} bytes: {}", entries.size(), currentBytes);
+    }
+
+    private static Stream<Path> walk(Path imageDir) {
+        try (Stream<Path> files = Files.walk(imageDir)) {
+            return files.filter(Files::isRegularFile).toList().stream();
+        } catch (IOException e) {
+            log.warn("scan thumbnails error dir: {}", imageDir, e);
+            return Stream.empty();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.IdUtil;
+import com.passwordxl.util.JwtUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * token签发、认证与吊销
+ * <p>
+ * 验证通过的token在有限时间内缓存解析结果，每个请求不再重复解析与验签；
+ * 无效token的日志限频输出，避免被大量无效请求刷屏。
+ * 吊销信息只保存在内存中：按token id吊销单个token，按用户吊销某一时刻之前签发的全部token，
+ * 认证时均为一次哈希查找，已过期的吊销记录定期清除。
+ * 主从复制时单个token的吊销记入变更日志同步到从节点；按用户吊销由各节点加载用户配置时各自完成。
+ */
+@Slf4j
+@Service
+public class TokenService {
+
+    // 验证结果缓存时间
+    private static final long CACHE_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    // 缓存数量上限，超出时整体清空
+    private static final int CACHE_MAX_SIZE = 10_000;
+    // 无效token日志输出间隔
+    private static final long INVALID_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // 过期吊销记录清理间隔
+    private static final long PURGE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * 缓存的验证结果
+     *
+     * @param claims     声明
+     * @param expireTime 缓存过期时间（System.nanoTime）
+     */
+    private record VerifiedToken(JwtUtil.Claims claims, long expireTime) {
+    }
+
+    private final long expireSeconds;
+    private final ReplicationLog replicationLog;
+
+    // token -> 验证结果。以token本身为key，String会缓存hashCode，且equals比较排除了哈希碰撞
+    private final ConcurrentHashMap<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+    // 已吊销的token id -> token过期时间（秒），过期后记录可以清除
+    private final ConcurrentHashMap<String, Long> revokedIds = new ConcurrentHashMap<>();
+    // 用户名 -> 吊销时间（毫秒），该时间及之前签发的token全部无效
+    private final ConcurrentHashMap<String, Long> userRevokedAt = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurgeTime = new AtomicLong(System.nanoTime() + PURGE_INTERVAL_NANOS);
+
+    private final AtomicLong nextInvalidLogTime = new AtomicLong(System.nanoTime());
+    private final LongAdder suppressedInvalidLogs = new LongAdder();
+
+    public TokenService(@Value("${password-xl.token.expire:7d}") Duration expire, ReplicationLog replicationLog) {
+        this.expireSeconds = expire.toSeconds();
+        this.replicationLog = replicationLog;
+    }
+
+    /**
+     * 签发token
+     *
+     * @param username 用户名
+     * @return jwt
+     */
+    public String generate(String username) {
+        return JwtUtil.generateToken(username, IdUtil.fastSimpleUUID(), expireSeconds);
+    }
+
+    /**
+     * 认证token
+     *
+     * @param token jwt
+     * @return 声明，token无效、过期或已吊销时返回null
+     */
+    public JwtUtil.Claims authenticate(String token) {
+        long now = System.nanoTime();
+        VerifiedToken verified = verifiedTokens.get(token);
+        JwtUtil.Claims claims;
+        if (verified != null && now - verified.expireTime() < 0) {
+            claims = verified.claims();
+        } else {
+            try {
+                claims = JwtUtil.verify(token);
+            } catch (Exception e) {
+                logInvalid(now, e);
+                return null;
+            }
+            if (verifiedTokens.size() >= CACHE_MAX_SIZE) {
+                verifiedTokens.clear();
+            }
+            purgeExpired();
+            // 缓存时间不超过token剩余有效期
+            long remainNanos = TimeUnit.SECONDS.toNanos(claims.expiresAt() - System.currentTimeMillis() / 1000);
+            verifiedTokens.put(token, new VerifiedToken(claims, now + Math.min(CACHE_TTL_NANOS, remainNanos)));
+        }
+        if (isRevoked(claims)) {
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * 刷新token，签发新token并吊销旧token
+     *
+     * @param claims 旧token的声明
+     * @return 新的jwt
+     */
+    public String refresh(JwtUtil.Claims claims) {
+        String token = generate(claims.username());
+        revoke(claims);
+        return token;
+    }
+
+    /**
+     * 吊销单个token
+     *
+     * @param claims token的声明
+     */
+    public void revoke(JwtUtil.Claims claims) {
+        try (ReplicationLog.Change ignored = replicationLog.record(ReplicationLog.Kind.REVOKE, claims.username(), claims.id())) {
+            revokedIds.put(claims.id(), claims.expiresAt());
+        } catch (IOException e) {
+            // 本节点仍然吊销，只是从节点上该token要到过期才失效
+            log.error("record token revoke error username: {}", claims.username(), e);
+            revokedIds.put(claims.id(), claims.expiresAt());
+        }
+        purgeExpired();
+    }
+
+    /**
+     * 吊销主节点同步的token，从节点使用
+     * <p>
+     * 变更中不含过期时间，按最长有效期保留吊销记录
+     *
+     * @param id token id
+     */
+    public void revokeReplica(String id) {
+        revokedIds.putIfAbsent(id, System.currentTimeMillis() / 1000 + expireSeconds);
+        purgeExpired();
+    }
+
+    /**
+     * 尚未过期的已吊销token id，用于从节点全量同步
+     */
+    public Set<String> revokedIds() {
+        return Set.copyOf(revokedIds.keySet());
+    }
+
+    /**
+     * 吊销用户当前已签发的全部token
+     *
+     * @param username 用户名
+     */
+    public void revokeUser(String username) {
+        userRevokedAt.put(username, System.currentTimeMillis());
+        log.info("revoke user tokens: {}", username);
+        purgeExpired();
+    }
+
+    private boolean isRevoked(JwtUtil.Claims claims) {
+        if (revokedIds.containsKey(claims.id())) {
+            return true;
+        }
+        Long revokedAt = userRevokedAt.get(claims.username());
+        return revokedAt != null && claims.issuedAt() <= revokedAt;
+    }
+
+    /**
+     * 清除已过期的吊销记录，过期的token本身已无法通过验证
+     */
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        long next = nextPurgeTime.get();
+        if (now - next < 0 || !nextPurgeTime.compareAndSet(next, now + PURGE_INTERVAL_NANOS)) {
+            return;
+        }
+        long nowSeconds = System.currentTimeMillis() / 1000;
+        revokedIds.values().removeIf(expiresAt -> expiresAt <= nowSeconds);
+        long nowMillis = System.currentTimeMillis();
+        userRevokedAt.values().removeIf(revokedAt -> revokedAt + expireSeconds * 1000 < nowMillis);
+    }
+
+    private void logInvalid(long now, Exception e) {
+        long next = nextInvalidLogTime.get();
+        if (now - next >= 0 && nextInvalidLogTime.compareAndSet(next, now + INVALID_LOG_INTERVAL_NANOS)) {
+            long suppressed = suppressedInvalidLogs.sumThenReset();
+            log.warn("token validation failed: {} (suppressed {} similar logs)", e.getMessage(), suppressed);
+        } else {
+            suppressedInvalidLogs.increment();
+        }
+    }
+}
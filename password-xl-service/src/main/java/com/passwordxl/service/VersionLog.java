@@ -0,0 +1,616 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.util.HexUtil;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 内容历史版本
+ * <p>
+ * 每次写入后把存储的内容追加到用户的段文件 {@code .versions/<序号>.log}，段文件只追加不修改，
+ * 超过大小上限后新建下一个段。最新内容仍由 {@link StorageEngine} 保存，读取最新版本不经过历史日志。
+ * <p>
+ * 记录格式：魔数(4) 长度(4) key长度(2) key 版本(8) 时间(8) 内容字节数(8) 内容哈希(32) 数据长度(4) 数据 CRC32(4)，
+ * 其中数据与存储引擎中的编码格式相同。内存中按 key 保存每个版本在段文件中的位置，读取历史版本只需一次定位读。
+ * <p>
+ * 后台定期压缩：每个 key 保留最近 retention-count 个版本，且丢弃早于 max-age 的版本（最新版本始终保留），
+ * 存活记录顺序复制到新段文件后删除旧段文件。新段文件生效后、旧段文件删除前中断时，
+ * 重启加载会读到同一版本的两条记录，按 (key, 版本) 去重并使用序号较大的段中的记录。
+ * <p>
+ * 开启后每次写入会从存储引擎再读一遍刚写入的数据并追加到段文件，磁盘写入量约为关闭时的两倍，因此默认关闭。
+ * 最新内容已由存储引擎按 durability 刷盘，追加记录时不再单独刷盘段文件，异常断电只可能丢失最近的历史记录，
+ * 加载时按 CRC 截断不完整的记录；压缩生成的新段文件在删除旧段文件前刷盘。
+ */
+@Slf4j
+@Component
+public class VersionLog {
+
+    /**
+     * 版本在段文件中的位置
+     *
+     * @param version 版本号，同一个key内递增
+     * @param etag    内容标记
+     * @param size    内容字节数
+     * @param time    写入时间
+     * @param segment 段文件序号
+     * @param offset  数据在段文件中的起始位置
+     * @param length  数据长度
+     */
+    public record Entry(long version, String etag, long size, long time, long segment, long offset, int length) {
+    }
+
+    private static final String VERSION_DIR = ".versions";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final int MAGIC = 0x50584C56;
+    // 魔数 + 长度
+    private static final int PREFIX_LENGTH = 8;
+    // key长度 + 版本 + 时间 + 内容字节数 + 内容哈希 + 数据长度
+    private static final int FIXED_HEADER_LENGTH = 2 + 8 + 8 + 8 + 32 + 4;
+    private static final int CRC_LENGTH = 4;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final AtomicFileWriter atomicFileWriter;
+    private final ContentCodec contentCodec;
+    private final StorageEngine storageEngine;
+    private final boolean enabled;
+    private final int retentionCount;
+    private final long maxAgeMillis;
+    private final long segmentSize;
+    private final Map<String, UserLog> logs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "version-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public VersionLog(AtomicFileWriter atomicFileWriter, ContentCodec contentCodec, StorageEngine storageEngine,
+                      @Value("${password-xl.history.enabled:false}") boolean enabled,
+                      @Value("${password-xl.history.retention-count:20}") int retentionCount,
+                      @Value("${password-xl.history.max-age:30d}") Duration maxAge,
+                      @Value("${password-xl.history.segment-size:64MB}") DataSize segmentSize,
+                      @Value("${password-xl.history.compact-interval:10m}") Duration compactInterval) {
+        this.atomicFileWriter = atomicFileWriter;
+        this.contentCodec = contentCodec;
+        this.storageEngine = storageEngine;
+        this.enabled = enabled;
+        this.retentionCount = Math.max(retentionCount, 1);
+        this.maxAgeMillis = maxAge.toMillis();
+        this.segmentSize = segmentSize.toBytes();
+        if (enabled) {
+            long interval = compactInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::compactAll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一个版本，内容与上一个版本相同时跳过
+     * <p>
+     * 调用方需持有该key的锁；存储的数据流式复制到段文件，不整体读入内存
+     *
+     * @param username   用户名
+     * @param key        内容key
+     * @param etag       内容标记
+     * @param size       内容字节数
+     * @param storedSize 存储字节数
+     */
+    public void append(String username, String key, String etag, long size, long storedSize) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        UserLog userLog = userLog(username);
+        List<Entry> entries = userLog.versions.getOrDefault(key, List.of());
+        if (!entries.isEmpty() && entries.getLast().etag().equals(etag)) {
+            return;
+        }
+        if (storedSize > Integer.MAX_VALUE - FIXED_HEADER_LENGTH - CRC_LENGTH - 0xFFFF) {
+            throw new IOException("version too large: " + storedSize);
+        }
+        try (InputStream data = storageEngine.stream(username, key)) {
+            if (data == null) {
+                return;
+            }
+            userLog.appendLock.lock();
+            try {
+                // 等待追加锁期间可能发生压缩，需要重新获取
+                entries = userLog.versions.getOrDefault(key, List.of());
+                long version = entries.isEmpty() ? 1 : entries.getLast().version() + 1;
+                Entry entry = userLog.write(key, version, System.currentTimeMillis(), size, etag, data, (int) storedSize);
+                List<Entry> updated = new ArrayList<>(entries.size() + 1);
+                updated.addAll(entries);
+                updated.add(entry);
+                userLog.versions.put(key, Collections.unmodifiableList(updated));
+            } finally {
+                userLog.appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 内容还没有任何历史版本时，先把当前内容记为第一个版本，保证覆盖前的内容可以找回
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param etag       当前内容标记
+     * @param size       当前内容字节数
+     * @param storedSize 当前存储字节数
+     */
+    public void appendBaseline(String username, String key, String etag, long size, long storedSize) throws IOException {
+        if (enabled && userLog(username).versions.getOrDefault(key, List.of()).isEmpty()) {
+            append(username, key, etag, size, storedSize);
+        }
+    }
+
+    /**
+     * 获取全部历史版本
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @return 版本列表，按版本号升序
+     */
+    public List<Entry> list(String username, String key) {
+        if (!enabled) {
+            return List.of();
+        }
+        return userLog(username).versions.getOrDefault(key, List.of());
+    }
+
+    /**
+     * 获取有历史版本的key
+     *
+     * @param username 用户名
+     * @return key列表
+     */
+    public List<String> keys(String username) {
+        if (!enabled) {
+            return List.of();
+        }
+        return new ArrayList<>(userLog(username).versions.keySet());
+    }
+
+    /**
+     * 读取历史版本内容
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param version  版本号
+     * @return 内容，版本不存在时返回null
+     */
+    public String read(String username, String key, long version) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        UserLog userLog = userLog(username);
+        // 压缩会替换段文件，读取期间不能进行
+        userLog.segmentLock.readLock().lock();
+        try {
+            for (Entry entry : userLog.versions.getOrDefault(key, List.of())) {
+                if (entry.version() == version) {
+                    return contentCodec.readString(userLog.readData(entry));
+                }
+            }
+            return null;
+        } finally {
+            userLog.segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按内容标记读取历史版本，同一内容出现多次时读取最新的一次
+     *
+     * @param username 用户名
+     * @param key      内容key
+     * @param etag     内容标记
+     * @return 内容，不存在时返回null
+     */
+    public String readByEtag(String username, String key, String etag) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        UserLog userLog = userLog(username);
+        userLog.segmentLock.readLock().lock();
+        try {
+            List<Entry> entries = userLog.versions.getOrDefault(key, List.of());
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (entries.get(i).etag().equals(etag)) {
+                    return contentCodec.readString(userLog.readData(entries.get(i)));
+                }
+            }
+            return null;
+        } finally {
+            userLog.segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按保留策略压缩用户的历史日志
+     *
+     * @param username 用户名
+     */
+    public void compact(String username) throws IOException {
+        UserLog userLog = userLog(username);
+        userLog.appendLock.lock();
+        userLog.segmentLock.writeLock().lock();
+        try {
+            userLog.compact();
+        } finally {
+            userLog.segmentLock.writeLock().unlock();
+            userLog.appendLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        for (UserLog userLog : logs.values()) {
+            userLog.appendLock.lock();
+            try {
+                userLog.closeActive();
+            } catch (IOException e) {
+                log.warn("close version log error username: {}", userLog.username, e);
+            } finally {
+                userLog.appendLock.unlock();
+            }
+        }
+    }
+
+    private void compactAll() {
+        for (String username : DataService.users.keySet()) {
+            if (!Files.isDirectory(versionDir(username))) {
+                continue;
+            }
+            try {
+                compact(username);
+            } catch (Exception e) {
+                log.error("compact version log error username: {}", username, e);
+            }
+        }
+    }
+
+    private UserLog userLog(String username) {
+        return logs.computeIfAbsent(username, name -> {
+            try {
+                return new UserLog(name);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static Path versionDir(String username) {
+        return Paths.get(DataService.workPath, "password-xl-data", username, VERSION_DIR);
+    }
+
+    private static String segmentName(long segment) {
+        return String.format("%012d", segment) + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * 单个用户的历史日志
+     */
+    private class UserLog {
+        final String username;
+        final Path dir;
+        // 追加与压缩互斥
+        final ReentrantLock appendLock = new ReentrantLock();
+        // 读取历史版本与替换段文件互斥
+        final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+        // key -> 按版本号升序的不可变列表，修改时整体替换；压缩后整个映射一次性替换，读取不加锁
+        volatile Map<String, List<Entry>> versions = new ConcurrentHashMap<>();
+        long activeSegment;
+        long activeSize;
+        FileChannel active;
+
+        UserLog(String username) throws IOException {
+            this.username = username;
+            this.dir = versionDir(username);
+            load();
+        }
+
+        /**
+         * 扫描全部段文件重建位置索引，最后一个段末尾不完整的记录视为写入中断并截断
+         */
+        private void load() throws IOException {
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            List<Long> segments = new ArrayList<>();
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path path : paths.toList()) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(COMPACTING_SUFFIX)) {
+                        // 压缩过程中进程退出遗留的文件
+                        Files.deleteIfExists(path);
+                    } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                        segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    }
+                }
+            }
+            Collections.sort(segments);
+            // 按段序号顺序扫描，同一版本的记录以较新的段为准
+            Map<String, TreeMap<Long, Entry>> loaded = new HashMap<>();
+            for (int i = 0; i < segments.size(); i++) {
+                long segment = segments.get(i);
+                long validSize = scan(segment, loaded);
+                if (i == segments.size() - 1) {
+                    activeSegment = segment;
+                    activeSize = validSize;
+                    try (FileChannel channel = FileChannel.open(dir.resolve(segmentName(segment)), StandardOpenOption.WRITE)) {
+                        if (channel.size() > validSize) {
+                            log.warn("truncate incomplete version record username: {} segment: {} size: {}", username, segment, validSize);
+                            channel.truncate(validSize);
+                        }
+                    }
+                }
+            }
+            loaded.forEach((key, entries) -> versions.put(key, List.copyOf(entries.values())));
+            log.info("load version log username: {} segments: {} keys: {}", username, segments.size(), versions.size());
+        }
+
+        /**
+         * 顺序读取段文件中的记录
+         *
+         * @return 有效记录的结束位置
+         */
+        private long scan(long segment, Map<String, TreeMap<Long, Entry>> loaded) throws IOException {
+            Path path = dir.resolve(segmentName(segment));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long position = 0;
+                long size = channel.size();
+                ByteBuffer prefix = ByteBuffer.allocate(PREFIX_LENGTH);
+                while (position + PREFIX_LENGTH <= size) {
+                    prefix.clear();
+                    readFully(channel, prefix, position);
+                    int magic = prefix.getInt(0);
+                    int bodyLength = prefix.getInt(4);
+                    if (magic != MAGIC || bodyLength < FIXED_HEADER_LENGTH + CRC_LENGTH
+                            || position + PREFIX_LENGTH + bodyLength > size) {
+                        break;
+                    }
+                    ByteBuffer body = ByteBuffer.allocate(bodyLength);
+                    readFully(channel, body, position + PREFIX_LENGTH);
+                    CRC32 crc = new CRC32();
+                    crc.update(body.array(), 0, bodyLength - CRC_LENGTH);
+                    if ((int) crc.getValue() != body.getInt(bodyLength - CRC_LENGTH)) {
+                        break;
+                    }
+                    body.rewind();
+                    byte[] keyBytes = new byte[body.getShort() & 0xFFFF];
+                    body.get(keyBytes);
+                    long version = body.getLong();
+                    long time = body.getLong();
+                    long contentSize = body.getLong();
+                    byte[] etag = new byte[32];
+                    body.get(etag);
+                    int dataLength = body.getInt();
+                    long dataOffset = position + PREFIX_LENGTH + body.position();
+                    String key = new String(keyBytes, StandardCharsets.UTF_8);
+                    loaded.computeIfAbsent(key, k -> new TreeMap<>())
+                            .put(version, new Entry(version, HexUtil.encodeHexStr(etag), contentSize, time, segment, dataOffset, dataLength));
+                    position += PREFIX_LENGTH + bodyLength;
+                }
+                return position;
+            }
+        }
+
+        /**
+         * 在当前段末尾写入一条记录，超过段大小上限时先切换到新段。写入失败时截断未完成的记录
+         *
+         * @param data       存储的数据，长度必须为 dataLength
+         * @param dataLength 数据长度
+         */
+        Entry write(String key, long version, long time, long size, String etag, InputStream data, int dataLength) throws IOException {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            int headerLength = FIXED_HEADER_LENGTH + keyBytes.length;
+            int bodyLength = headerLength + dataLength + CRC_LENGTH;
+            if (active == null || activeSize > 0 && activeSize + PREFIX_LENGTH + bodyLength > segmentSize) {
+                openSegment(active == null && activeSize > 0 ? activeSegment : activeSegment + 1);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(PREFIX_LENGTH + headerLength);
+            header.putInt(MAGIC).putInt(bodyLength)
+                    .putShort((short) keyBytes.length).put(keyBytes)
+                    .putLong(version).putLong(time).putLong(size)
+                    .put(HexUtil.decodeHex(etag))
+                    .putInt(dataLength)
+                    .flip();
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), PREFIX_LENGTH, headerLength);
+
+            long start = activeSize;
+            try {
+                active.position(start);
+                writeFully(header);
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                long copied = 0;
+                int read;
+                while ((read = data.read(buffer.array())) > 0) {
+                    copied += read;
+                    if (copied > dataLength) {
+                        throw new IOException("version data larger than expected: " + dataLength);
+                    }
+                    crc.update(buffer.array(), 0, read);
+                    buffer.clear().limit(read);
+                    writeFully(buffer);
+                }
+                if (copied != dataLength) {
+                    throw new IOException("version data size mismatch expect: " + dataLength + " actual: " + copied);
+                }
+                writeFully(ByteBuffer.allocate(CRC_LENGTH).putInt((int) crc.getValue()).flip());
+            } catch (IOException | RuntimeException e) {
+                active.truncate(start);
+                throw e;
+            }
+            activeSize = start + PREFIX_LENGTH + bodyLength;
+            return new Entry(version, etag, size, time, activeSegment, start + PREFIX_LENGTH + headerLength, dataLength);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+        }
+
+        private void openSegment(long segment) throws IOException {
+            closeActive();
+            Files.createDirectories(dir);
+            Path path = dir.resolve(segmentName(segment));
+            boolean created = !Files.exists(path);
+            active = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (segment != activeSegment) {
+                activeSize = 0;
+            }
+            activeSegment = segment;
+            if (created && atomicFileWriter.getDurability() == AtomicFileWriter.Durability.FSYNC_DIR) {
+                // 新建的段文件需要目录项落盘
+                AtomicFileWriter.fsyncDir(dir);
+            }
+        }
+
+        void closeActive() throws IOException {
+            if (active != null) {
+                active.close();
+                active = null;
+            }
+        }
+
+        byte[] readData(Entry entry) throws IOException {
+            try (FileChannel channel = FileChannel.open(dir.resolve(segmentName(entry.segment())), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+                readFully(channel, buffer, entry.offset());
+                return buffer.array();
+            }
+        }
+
+        /**
+         * 按保留策略筛选存活记录，顺序复制到新段文件后替换旧段文件。调用方需持有追加锁与段文件写锁
+         */
+        void compact() throws IOException {
+            long now = System.currentTimeMillis();
+            Map<String, List<Entry>> retained = new TreeMap<>();
+            boolean dropped = false;
+            for (Map.Entry<String, List<Entry>> keyVersions : versions.entrySet()) {
+                List<Entry> entries = keyVersions.getValue();
+                List<Entry> keep = new ArrayList<>();
+                for (int i = entries.size() - 1; i >= 0; i--) {
+                    Entry entry = entries.get(i);
+                    boolean latest = i == entries.size() - 1;
+                    if (latest || entries.size() - i <= retentionCount && now - entry.time() <= maxAgeMillis) {
+                        keep.addFirst(entry);
+                    }
+                }
+                dropped |= keep.size() != entries.size();
+                retained.put(keyVersions.getKey(), keep);
+            }
+            if (!dropped) {
+                return;
+            }
+
+            long segment = activeSegment + 1;
+            Path target = dir.resolve(segmentName(segment));
+            Path compacting = dir.resolve(segmentName(segment) + COMPACTING_SUFFIX);
+            Map<String, List<Entry>> relocated = new ConcurrentHashMap<>();
+            Map<Long, FileChannel> sources = new HashMap<>();
+            try (FileChannel out = FileChannel.open(compacting, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for (Map.Entry<String, List<Entry>> keyVersions : retained.entrySet()) {
+                    int headerLength = FIXED_HEADER_LENGTH + keyVersions.getKey().getBytes(StandardCharsets.UTF_8).length;
+                    List<Entry> moved = new ArrayList<>();
+                    for (Entry entry : keyVersions.getValue()) {
+                        FileChannel source = sources.get(entry.segment());
+                        if (source == null) {
+                            source = FileChannel.open(dir.resolve(segmentName(entry.segment())), StandardOpenOption.READ);
+                            sources.put(entry.segment(), source);
+                        }
+                        long recordStart = entry.offset() - headerLength - PREFIX_LENGTH;
+                        long recordLength = PREFIX_LENGTH + headerLength + entry.length() + CRC_LENGTH;
+                        long copied = 0;
+                        while (copied < recordLength) {
+                            copied += source.transferTo(recordStart + copied, recordLength - copied, out);
+                        }
+                        moved.add(new Entry(entry.version(), entry.etag(), entry.size(), entry.time(), segment,
+                                position + PREFIX_LENGTH + headerLength, entry.length()));
+                        position += recordLength;
+                    }
+                    relocated.put(keyVersions.getKey(), Collections.unmodifiableList(moved));
+                }
+                out.force(false);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(compacting);
+                throw e;
+            } finally {
+                for (FileChannel source : sources.values()) {
+                    source.close();
+                }
+            }
+
+            try {
+                Files.move(compacting, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(compacting, target);
+            }
+            closeActive();
+            long oldBytes = 0;
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path path : paths.toList()) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(SEGMENT_SUFFIX) && !path.equals(target)) {
+                        oldBytes += Files.size(path);
+                        Files.delete(path);
+                    }
+                }
+            }
+            if (atomicFileWriter.getDurability() == AtomicFileWriter.Durability.FSYNC_DIR) {
+                AtomicFileWriter.fsyncDir(dir);
+            }
+            versions = relocated;
+            activeSegment = segment;
+            activeSize = Files.size(target);
+            log.info("compact version log username: {} before: {} after: {}", username, oldBytes, activeSize);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("unexpected end of version log");
+            }
+        }
+    }
+}
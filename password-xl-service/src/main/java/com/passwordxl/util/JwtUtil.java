@@ -5,43 +5,71 @@ import cn.hutool.jwt.JWTPayload;
 import cn.hutool.jwt.JWTUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 @Slf4j
 public class JwtUtil {
 
-    private static final String SECRET_KEY = "password-xl";
+    private static final byte[] SECRET_KEY = "password-xl".getBytes(StandardCharsets.UTF_8);
+    // 毫秒精度的签发时间，iat 只精确到秒，无法区分同一秒内吊销前后签发的token
+    private static final String ISSUED_AT_MILLIS = "iatMs";
 
     /**
-     * 生成jwt
+     * jwt中的声明
+     *
+     * @param username  用户名
+     * @param id        token id
+     * @param issuedAt  签发时间（毫秒），没有毫秒签发时间的旧token按 iat 计算
+     * @param expiresAt 过期时间（秒）
      */
-    public static String generateToken(String username) {
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("username", username);
-        payload.put(JWTPayload.ISSUED_AT, new Date());
-        return JWTUtil.createToken(payload, SECRET_KEY.getBytes());
+    public record Claims(String username, String id, long issuedAt, long expiresAt) {
     }
 
     /**
-     * 验证jwt
+     * 生成jwt
+     *
+     * @param username      用户名
+     * @param id            token id
+     * @param expireSeconds 有效期（秒）
      */
-    public static boolean validateToken(String token) {
-        try {
-            JWT jwt = JWTUtil.parseToken(token);
-            return jwt.setKey(SECRET_KEY.getBytes()).verify();
-        } catch (Exception e) {
-            log.error("Token validation error: ", e);
-            return false;
-        }
+    public static String generateToken(String username, String id, long expireSeconds) {
+        long nowMillis = System.currentTimeMillis();
+        long now = nowMillis / 1000;
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("username", username);
+        payload.put(JWTPayload.JWT_ID, id);
+        payload.put(JWTPayload.ISSUED_AT, now);
+        payload.put(ISSUED_AT_MILLIS, nowMillis);
+        payload.put(JWTPayload.EXPIRES_AT, now + expireSeconds);
+        return JWTUtil.createToken(payload, SECRET_KEY);
     }
 
     /**
-     * 获取参数
+     * 解析并验证jwt，只解析一次
+     *
+     * @param token jwt
+     * @return 声明
+     * @throws IllegalArgumentException token格式错误、签名无效或已过期
      */
-    public static String getUsernameFromToken(String token) {
+    public static Claims verify(String token) {
         JWT jwt = JWTUtil.parseToken(token);
-        return jwt.getPayload("username").toString();
+        if (!jwt.setKey(SECRET_KEY).verify()) {
+            throw new IllegalArgumentException("token signature invalid");
+        }
+        Object username = jwt.getPayload("username");
+        Object id = jwt.getPayload(JWTPayload.JWT_ID);
+        if (username == null || id == null
+                || !(jwt.getPayload(JWTPayload.ISSUED_AT) instanceof Number issuedAt)
+                || !(jwt.getPayload(JWTPayload.EXPIRES_AT) instanceof Number expiresAt)) {
+            throw new IllegalArgumentException("token claims missing");
+        }
+        if (expiresAt.longValue() <= System.currentTimeMillis() / 1000) {
+            throw new IllegalArgumentException("token expired");
+        }
+        long issuedAtMillis = jwt.getPayload(ISSUED_AT_MILLIS) instanceof Number millis
+                ? millis.longValue() : issuedAt.longValue() * 1000;
+        return new Claims(username.toString(), id.toString(), issuedAtMillis, expiresAt.longValue());
     }
 }
@@ -0,0 +1,354 @@
+package com.passwordxl.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 流式读写 tar 归档（POSIX ustar 格式）
+ * <p>
+ * 只支持普通文件，路径超过100字节时使用 pax 扩展头记录完整路径。写入时需要预先知道文件大小，
+ * 读取时逐个返回文件，跳过目录、链接等其他类型的条目。
+ */
+public class TarArchive {
+
+    private static final int BLOCK = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_PAX = 'x';
+    private static final byte TYPE_GNU_LONG_NAME = 'L';
+
+    /**
+     * 归档中的一个文件
+     *
+     * @param name         文件路径
+     * @param size         文件大小
+     * @param lastModified 最后修改时间
+     * @param data         文件内容，读取下一个文件后失效，关闭不影响归档流
+     */
+    public record Entry(String name, long size, long lastModified, InputStream data) {
+    }
+
+    /**
+     * 写入 tar 归档
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final OutputStream out;
+        private boolean finished;
+
+        public Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * 写入一个文件，写入的字节数必须与声明的大小一致
+         *
+         * @param name         文件路径
+         * @param size         文件大小
+         * @param lastModified 最后修改时间
+         * @param data         文件内容
+         */
+        public void put(String name, long size, long lastModified, InputStream data) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > NAME_LENGTH) {
+                byte[] pax = paxRecord("path", name);
+                writeHeader("PaxHeader/" + name.hashCode(), pax.length, lastModified, TYPE_PAX);
+                out.write(pax);
+                pad(pax.length);
+                nameBytes = Arrays.copyOf(nameBytes, NAME_LENGTH);
+            }
+            writeHeader(nameBytes, size, lastModified, TYPE_FILE);
+            long written = data.transferTo(new BoundedOutputStream(out, size));
+            if (written != size) {
+                throw new IOException("tar entry size mismatch: " + name + " expect: " + size + " actual: " + written);
+            }
+            pad(size);
+        }
+
+        /**
+         * 写入归档结束标记，不关闭底层流
+         */
+        public void finish() throws IOException {
+            if (!finished) {
+                out.write(new byte[BLOCK * 2]);
+                finished = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            out.close();
+        }
+
+        private void writeHeader(String name, long size, long lastModified, byte type) throws IOException {
+            writeHeader(name.getBytes(StandardCharsets.UTF_8), size, lastModified, type);
+        }
+
+        private void writeHeader(byte[] name, long size, long lastModified, byte type) throws IOException {
+            byte[] header = new byte[BLOCK];
+            System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+            octal(header, 100, 8, 0644);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            octal(header, 124, 12, size);
+            octal(header, 136, 12, lastModified / 1000);
+            header[156] = type;
+            System.arraycopy("ustar\000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+            header[263] = '0';
+            header[264] = '0';
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            octal(header, 148, 7, checksum(header));
+            out.write(header);
+        }
+
+        private void pad(long size) throws IOException {
+            int remainder = (int) (size % BLOCK);
+            if (remainder != 0) {
+                out.write(new byte[BLOCK - remainder]);
+            }
+        }
+    }
+
+    /**
+     * 读取 tar 归档
+     */
+    public static class Reader {
+
+        private final InputStream in;
+        private long remaining;
+        private long padding;
+
+        public Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * 读取下一个文件，未读完的上一个文件内容自动跳过
+         *
+         * @return 文件，归档结束时返回null
+         */
+        public Entry next() throws IOException {
+            skip(remaining + padding);
+            remaining = 0;
+            padding = 0;
+            String longName = null;
+            byte[] header = new byte[BLOCK];
+            while (true) {
+                if (!readBlock(header)) {
+                    return null;
+                }
+                if (isZero(header)) {
+                    return null;
+                }
+                long expected = parseOctal(header, 148, 8);
+                Arrays.fill(header, 148, 156, (byte) ' ');
+                if (checksum(header) != expected) {
+                    throw new IOException("tar header checksum mismatch");
+                }
+                long size = parseOctal(header, 124, 12);
+                long dataPadding = (BLOCK - size % BLOCK) % BLOCK;
+                byte type = header[156];
+                if (type == TYPE_PAX || type == TYPE_GNU_LONG_NAME) {
+                    byte[] data = in.readNBytes((int) size);
+                    if (data.length != size) {
+                        throw new EOFException("tar truncated");
+                    }
+                    skip(dataPadding);
+                    String name = type == TYPE_PAX ? paxPath(data) : cString(data, 0, data.length);
+                    if (name != null) {
+                        longName = name;
+                    }
+                    continue;
+                }
+                if (type != TYPE_FILE && type != 0) {
+                    skip(size + dataPadding);
+                    longName = null;
+                    continue;
+                }
+                String name = longName;
+                if (name == null) {
+                    name = cString(header, 0, NAME_LENGTH);
+                    String prefix = cString(header, 345, 155);
+                    if (!prefix.isEmpty() && "ustar".equals(cString(header, 257, 6).trim())) {
+                        name = prefix + "/" + name;
+                    }
+                }
+                remaining = size;
+                padding = dataPadding;
+                return new Entry(name, size, parseOctal(header, 136, 12) * 1000, new EntryInputStream());
+            }
+        }
+
+        private boolean readBlock(byte[] block) throws IOException {
+            int read = in.readNBytes(block, 0, BLOCK);
+            if (read == 0) {
+                return false;
+            }
+            if (read != BLOCK) {
+                throw new EOFException("tar truncated");
+            }
+            return true;
+        }
+
+        private void skip(long n) throws IOException {
+            in.skipNBytes(n);
+        }
+
+        /**
+         * 当前文件的内容
+         */
+        private class EntryInputStream extends InputStream {
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("tar truncated");
+                }
+                remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = in.read(b, off, (int) Math.min(len, remaining));
+                if (read < 0) {
+                    throw new EOFException("tar truncated");
+                }
+                remaining -= read;
+                return read;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    /**
+     * 限制写入字节数，超出时失败
+     */
+    private static class BoundedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long remaining;
+
+        BoundedOutputStream(OutputStream out, long limit) {
+            this.out = out;
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("tar entry larger than declared size");
+            }
+            out.write(b, off, len);
+            remaining -= len;
+        }
+    }
+
+    /**
+     * pax 记录格式为 "长度 键=值\n"，长度包含自身的位数
+     */
+    private static byte[] paxRecord(String key, String value) {
+        int contentLength = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = contentLength + String.valueOf(contentLength).length();
+        if (String.valueOf(length).length() != String.valueOf(contentLength).length()) {
+            length++;
+        }
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String paxPath(byte[] data) {
+        String path = null;
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            if (space >= data.length) {
+                break;
+            }
+            int length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            if (length <= 0 || pos + length > data.length) {
+                break;
+            }
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                path = record.substring(5);
+            }
+            pos += length;
+        }
+        return path;
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) {
+            throw new IllegalArgumentException("tar field overflow: " + value);
+        }
+        Arrays.fill(header, offset, offset + length - 1 - digits.length(), (byte) '0');
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset + length - 1 - digits.length(), digits.length());
+        header[offset + length - 1] = 0;
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("invalid tar header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static long checksum(byte[] header) {
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        return sum;
+    }
+
+    private static String cString(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package com.passwordxl.util;
+
+import com.passwordxl.bean.PatchOp;
+
+import java.util.List;
+
+/**
+ * 文本增量计算与应用
+ */
+public class TextDelta {
+
+    /**
+     * 计算从base到target的修改片段，取公共前后缀之间的部分作为一个片段
+     *
+     * @param base   原内容
+     * @param target 新内容
+     * @return 修改片段，内容相同时为空列表
+     */
+    public static List<PatchOp> diff(String base, String target) {
+        int baseLength = base.length();
+        int targetLength = target.length();
+        int maxPrefix = Math.min(baseLength, targetLength);
+        int prefix = 0;
+        while (prefix < maxPrefix && base.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == baseLength && prefix == targetLength) {
+            return List.of();
+        }
+        // 不拆分代理对
+        if (prefix > 0 && Character.isHighSurrogate(base.charAt(prefix - 1))) {
+            prefix--;
+        }
+        int maxSuffix = maxPrefix - prefix;
+        int suffix = 0;
+        while (suffix < maxSuffix && base.charAt(baseLength - 1 - suffix) == target.charAt(targetLength - 1 - suffix)) {
+            suffix++;
+        }
+        if (suffix > 0 && Character.isLowSurrogate(base.charAt(baseLength - suffix))) {
+            suffix--;
+        }
+        return List.of(new PatchOp(prefix, baseLength - prefix - suffix, target.substring(prefix, targetLength - suffix)));
+    }
+
+    /**
+     * 应用修改片段
+     *
+     * @param base 原内容
+     * @param ops  按起始位置升序排列且互不重叠的修改片段
+     * @return 新内容
+     * @throws IllegalArgumentException 片段越界、重叠或未排序
+     */
+    public static String apply(String base, List<PatchOp> ops) {
+        int insertLength = 0;
+        for (PatchOp op : ops) {
+            insertLength += op.getInsert() == null ? 0 : op.getInsert().length();
+        }
+        StringBuilder builder = new StringBuilder(base.length() + insertLength);
+        int position = 0;
+        for (PatchOp op : ops) {
+            int start = op.getStart();
+            long end = (long) start + op.getDeleteCount();
+            if (start < position || op.getDeleteCount() < 0 || end > base.length()) {
+                throw new IllegalArgumentException("修改片段无效: " + start + "," + op.getDeleteCount());
+            }
+            builder.append(base, position, start);
+            if (op.getInsert() != null) {
+                builder.append(op.getInsert());
+            }
+            position = (int) end;
+        }
+        builder.append(base, position, base.length());
+        return builder.toString();
+    }
+}
@@ -2,19 +2,28 @@ package com.passwordxl.util;
 
 import com.passwordxl.bean.User;
 
+/**
+ * 当前请求的登录用户
+ * <p>
+ * 通过 ScopedValue 在登录过滤器中绑定，作用域结束自动解除，无需手动清理，
+ * 虚拟线程模式下也没有 ThreadLocal 的额外开销。绑定只在当前线程可见，交给其他线程执行时需要显式传递用户名。
+ */
 public class UserContent {
 
-    private static final ThreadLocal<User> userThreadLocal = new ThreadLocal<>();
+    private static final ScopedValue<User> USER = ScopedValue.newInstance();
 
-    public static void setUser(User user) {
-        userThreadLocal.set(user);
+    /**
+     * 以指定用户身份执行
+     *
+     * @param user 登录用户
+     * @param op   要执行的操作
+     * @return 操作结果
+     */
+    public static <R, X extends Throwable> R callAs(User user, ScopedValue.CallableOp<? extends R, X> op) throws X {
+        return ScopedValue.where(USER, user).call(op);
     }
 
     public static User getUser() {
-        return userThreadLocal.get();
-    }
-
-    public static void clearUser() {
-        userThreadLocal.remove();
+        return USER.isBound() ? USER.get() : null;
     }
 }
@@ -0,0 +1,160 @@
+package com.passwordxl.service;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.alibaba.fastjson2.JSONObject;
+import com.passwordxl.bean.GetContentParam;
+import com.passwordxl.bean.PutContentParam;
+import com.passwordxl.common.RestResult;
+import com.passwordxl.config.ReplicationConfig;
+import com.passwordxl.config.StorageConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 同一个key上并发的条件写入与读取
+ * <p>
+ * 每个虚拟线程反复读取内容，再以读到的标记为条件写入新内容。新内容记录它基于的标记，
+ * 据此校验：读到的内容与标记一致、同一个标记最多有一次写入成功、成功与冲突的次数与尝试次数一致。
+ */
+class ContentConcurrencyTest {
+
+    private static final String USERNAME = "test";
+    private static final String KEY = "store.json";
+    private static final int THREADS = 32;
+    private static final int ATTEMPTS = 200;
+
+    private Path workPath;
+    private ChangeNotifier changeNotifier;
+    private VersionLog versionLog;
+    private ReplicationLog replicationLog;
+    private StorageEngine storageEngine;
+    private ContentMetaIndex contentMetaIndex;
+    private PasswordXLService service;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        changeNotifier.close();
+        versionLog.close();
+        replicationLog.close();
+        storageEngine.close();
+        FileUtil.del(workPath);
+    }
+
+    /**
+     * @param engine    存储引擎
+     * @param cacheSize 缓存大小，为0时每次读取都访问存储引擎
+     */
+    @ParameterizedTest
+    @CsvSource({"FILE, 0", "FILE, 64MB", "PAGE, 0", "PAGE, 64MB"})
+    void casPutAndGet(StorageConfig.Engine engine, String cacheSize) throws Exception {
+        setUp(engine, cacheSize);
+        String initial = service.putContent(USERNAME, putParam(null, "initial")).getData().getString("etag");
+
+        // 新标记 -> 写入时基于的标记
+        Map<String, String> bases = new ConcurrentHashMap<>();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < ATTEMPTS; i++) {
+                        RestResult<JSONObject> got = service.getContent(USERNAME, getParam());
+                        assertEquals(200, got.getCode());
+                        String etag = got.getData().getString("etag");
+                        String content = got.getData().getString("content");
+                        assertEquals(etag, DigestUtil.sha256Hex(content), "读到的内容与标记不一致");
+
+                        RestResult<JSONObject> put = service.putContent(USERNAME,
+                                putParam(etag, "base=" + etag + ";thread=" + thread + ";n=" + i));
+                        if (put.getCode() == 200) {
+                            String previous = bases.put(put.getData().getString("etag"), etag);
+                            assertNull(previous, "同一内容写入了两次");
+                            succeeded.incrementAndGet();
+                        } else {
+                            assertEquals(412, put.getCode());
+                            assertNotEquals(etag, put.getData().getString("etag"), "标记未变化却写入冲突");
+                            conflicts.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertEquals(THREADS * ATTEMPTS, succeeded.get() + conflicts.get());
+        // 每个标记最多作为一次成功写入的基准，否则有写入覆盖了其他客户端的修改
+        assertEquals(succeeded.get(), Map.copyOf(bases).values().stream().distinct().count(), "存在丢失的更新");
+        assertEquals(1 + succeeded.get(), contentMetaIndex.get(USERNAME, KEY).getVersion());
+
+        // 从最终内容沿基准回溯，应经过全部成功的写入回到初始内容
+        String etag = service.getContent(USERNAME, getParam()).getData().getString("etag");
+        int chain = 0;
+        while (!etag.equals(initial)) {
+            etag = bases.get(etag);
+            chain++;
+        }
+        assertEquals(succeeded.get(), chain);
+    }
+
+    private void setUp(StorageConfig.Engine engine, String cacheSize) throws IOException {
+        workPath = Files.createTempDirectory("password-xl-test");
+        DataService.workPath = workPath.toString();
+        ContentCodec contentCodec = new ContentCodec(ContentCodec.Codec.NONE);
+        AtomicFileWriter atomicFileWriter = new AtomicFileWriter(AtomicFileWriter.Durability.NONE);
+        storageEngine = StorageConfig.create(engine, atomicFileWriter);
+        ContentLockManager contentLockManager = new ContentLockManager();
+        contentMetaIndex = new ContentMetaIndex(contentCodec, storageEngine, contentLockManager);
+        ContentCache contentCache = new ContentCache(DataSize.parse(cacheSize));
+        versionLog = new VersionLog(atomicFileWriter, contentCodec, storageEngine, false, 20, Duration.ofDays(30),
+                DataSize.ofMegabytes(64), Duration.ofMinutes(10));
+        replicationLog = new ReplicationLog(atomicFileWriter, ReplicationConfig.Role.NONE, 100_000);
+        ImageStore imageStore = new ImageStore(atomicFileWriter, contentLockManager, contentMetaIndex, contentCodec, storageEngine,
+                versionLog, replicationLog);
+        TokenService tokenService = new TokenService(Duration.ofDays(7), replicationLog);
+        changeNotifier = new ChangeNotifier(Duration.ofMinutes(30), Duration.ofSeconds(30), 16);
+        ServiceMetrics serviceMetrics = new ServiceMetrics(new SimpleMeterRegistry(), contentCache, changeNotifier, contentLockManager);
+        service = new PasswordXLService(contentMetaIndex, contentCache, contentLockManager, imageStore,
+                tokenService, contentCodec, storageEngine, changeNotifier, serviceMetrics, versionLog, replicationLog,
+                new ThumbnailCache(atomicFileWriter, new int[]{64}, DataSize.ofMegabytes(1), 0.85f, 1));
+    }
+
+    private static PutContentParam putParam(String etag, String content) {
+        PutContentParam putContentParam = new PutContentParam();
+        putContentParam.setKey(KEY);
+        putContentParam.setEtag(etag);
+        putContentParam.setContent(content);
+        return putContentParam;
+    }
+
+    private static GetContentParam getParam() {
+        GetContentParam getContentParam = new GetContentParam();
+        getContentParam.setKey(KEY);
+        return getContentParam;
+    }
+}
@@ -20,6 +20,12 @@ export class DatabaseForPrivate implements Database {
     private serverUrl: string = ''
     // 登录后的token
     private token: string = ''
+    // 内容变化通知连接
+    private eventSource: EventSource | null = null
+    // 正在上传的文件，上传结果返回前收到的通知可能来自本客户端
+    private uploadingFiles: { [key: string]: number } = {}
+    // 是否已提示文件同步异常
+    private syncErrorShown: boolean = false
 
     // 登录并验证文件权限、初始化基本信息
     async login(form: PrivateLoginForm): Promise<RespData> {
@@ -37,6 +43,7 @@ export class DatabaseForPrivate implements Database {
                     return
                 }
                 this.token = res.data.data
+                this.subscribeChange()
                 resolve({status: true})
             }).catch(err => {
                 console.log('私有服务登录失败', err)
@@ -152,34 +159,19 @@ export class DatabaseForPrivate implements Database {
     // 上传private文件
     private async uploadFile(fileName: string, content: string): Promise<RespData> {
         console.log('上传private文件：', fileName)
-        return new Promise(async (resolve, reject) => {
-            // 检查文件是否为最新
-            let checkResult = await this.checkEtag(fileName)
-            if (!checkResult) {
-                console.log('上传private文件 文件同步异常')
-                const message = '当前密码列表已被其他客户端更新，请刷新页面'
-                ElMessageBox({
-                    title: '文件同步异常',
-                    message,
-                    showCancelButton: false,
-                    showConfirmButton: true,
-                    closeOnPressEscape: false,
-                    showClose: false,
-                    closeOnClickModal: false,
-                    confirmButtonText: '刷新',
-                    callback: () => {
-                        console.log('刷新');
-                        location.reload()
-                    }
-                })
-                resolve({status: false, message})
-                return
-            }
-
+        this.uploadingFiles[fileName] = (this.uploadingFiles[fileName] || 0) + 1
+        return new Promise<RespData>((resolve, reject) => {
+            // 携带当前文件标记，由服务端原子校验文件是否为最新后再写入
             axios.post(this.serverUrl + '/put', {
                 key: fileName,
-                content: content
+                content: content,
+                etag: this.fileEtags[fileName] ? String(this.fileEtags[fileName]) : undefined
             }, {headers: {Authorization: `Bearer ${this.token}`}}).then(res => {
+                if (res.data.code === 412) {
+                    console.log('上传private文件 文件同步异常')
+                    resolve({status: false, message: this.showSyncError()})
+                    return
+                }
                 if (res.data.code === 500) {
                     console.log('private 上传文件错误：', res.data)
                     ElNotification.error({title: '系统异常', message: this.errorDispose(res.data.message)})
@@ -196,6 +188,8 @@ export class DatabaseForPrivate implements Database {
                 ElNotification.error({title: '系统异常', message: err.message})
                 reject({status: false, message: err})
             })
+        }).finally(() => {
+            this.uploadingFiles[fileName]--
         })
     }
 
@@ -211,6 +205,7 @@ export class DatabaseForPrivate implements Database {
                     return
                 }
                 if (res.status === 200) {
+                    delete this.fileEtags[fileName]
                     resolve({status: true})
                     return
                 }
@@ -221,6 +216,54 @@ export class DatabaseForPrivate implements Database {
         })
     }
 
+    // 订阅服务端内容变化，其他客户端修改了本客户端已加载的文件时提示刷新
+    private subscribeChange() {
+        if (this.eventSource) {
+            this.eventSource.close()
+        }
+        if (typeof EventSource === 'undefined') {
+            return
+        }
+        this.eventSource = new EventSource(this.serverUrl + '/events?token=' + encodeURIComponent(this.token))
+        this.eventSource.addEventListener('change', (event: MessageEvent) => {
+            const change = JSON.parse(event.data)
+            console.log('private 内容变化：', change)
+            const currentEtag = this.fileEtags[change.key]
+            if (!currentEtag || currentEtag === change.etag || this.uploadingFiles[change.key] > 0) {
+                return
+            }
+            this.showSyncError()
+        })
+        this.eventSource.onerror = () => {
+            // 连接中断时浏览器会自动重连，token失效后服务端返回401，连接随即关闭
+            console.log('private 变化通知连接异常')
+        }
+    }
+
+    // 文件已被其他客户端更新，提示刷新页面
+    private showSyncError(): string {
+        const message = '当前密码列表已被其他客户端更新，请刷新页面'
+        if (this.syncErrorShown) {
+            return message
+        }
+        this.syncErrorShown = true
+        ElMessageBox({
+            title: '文件同步异常',
+            message,
+            showCancelButton: false,
+            showConfirmButton: true,
+            closeOnPressEscape: false,
+            showClose: false,
+            closeOnClickModal: false,
+            confirmButtonText: '刷新',
+            callback: () => {
+                console.log('刷新');
+                location.reload()
+            }
+        })
+        return message
+    }
+
     // 错误提示
     private errorDispose(err: string) {
         console.log(err)
@@ -235,38 +278,6 @@ export class DatabaseForPrivate implements Database {
         return errMessageDist[err] || err
     }
 
-    // 获取文件标记
-    private getEtag(fileName: string): Promise<string> {
-        return new Promise(async (resolve, reject) => {
-            axios.post(this.serverUrl + '/getEtag', {key: fileName}, {headers: {Authorization: `Bearer ${this.token}`}}).then(res => {
-                if (res.data.code === 500) {
-                    console.log('private 获取文件标记错误：', res.data)
-                    ElNotification.error({title: '系统异常', message: this.errorDispose(res.data.message)})
-                    reject({status: false, message: res.data.message})
-                    return
-                }
-                if (res.status === 200) {
-                    resolve(res.data.data.etag)
-                    return
-                }
-                reject({status: false, message: res.statusText})
-            }).catch(err => {
-                ElNotification.error({title: '系统异常', message: err.message})
-                reject({status: false, message: err})
-            })
-        })
-    }
-
-    // 检查文件标记是否与当前客户端一致
-    private async checkEtag(fileName: string) {
-        if (!this.fileEtags[fileName]) {
-            // 标记不存在，默认通过
-            return Promise.resolve(true)
-        }
-        let etag = await this.getEtag(fileName);
-        return this.fileEtags[fileName] === etag
-    }
-
     // 更新当前客户端文件标记
     private async updateEtag(fileName: string, etag: string) {
         console.log('private updateEtag:', etag)